@@ -3,6 +3,7 @@ package gg.playit.api;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gg.playit.api.actions.*;
 import gg.playit.api.models.*;
+import gg.playit.jfr.ApiRequestEvent;
 import gg.playit.minecraft.utils.DecoderException;
 
 import java.io.IOException;
@@ -10,17 +11,23 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ApiClient {
         private static final String API_URL = "https://api.playit.cloud";
 //    private static final String API_URL = "http://localhost:8080";
 
+    /* one connection pool and selector thread for every agent and helper in the JVM */
+    private static final HttpClient SHARED_CLIENT = HttpClient.newHttpClient();
+    private static final ObjectMapper SHARED_MAPPER = new ObjectMapper();
+
     private final HttpClient client;
     private final String secret;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper mapper = SHARED_MAPPER;
 
     public ApiClient(String secret) {
-        client = HttpClient.newHttpClient();
+        client = SHARED_CLIENT;
         this.secret = secret;
     }
 
@@ -55,9 +62,75 @@ public class ApiClient {
         return execute(new CreateGuestSession(), WebSession.class).sessionKey;
     }
 
+    public CompletableFuture<SessionStatus> getStatusAsync() {
+        return executeAsync(new GetStatus(), SessionStatus.class);
+    }
+
+    public CompletableFuture<AccountTunnels> listTunnelsAsync() {
+        return executeAsync(new ListFromAccount(ListFromAccount.Type.AccountTunnels), AccountTunnels.class);
+    }
+
+    public CompletableFuture<Created> createTunnelAsync(CreateTunnel create) {
+        return executeAsync(create, Created.class);
+    }
+
+    /**
+     * Wait for an async API call, unwrapping the IOException (or ApiError) it failed with.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("api request failed", e.getCause());
+        }
+    }
+
     private <T> T execute(Action action, Class<T> responseType) throws IOException {
         var requestBody = mapper.writeValueAsString(action);
+        var request = buildRequest(action, requestBody);
+
+        var event = new ApiRequestEvent();
+        event.begin();
+
+        try {
+            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            event.statusCode = response.statusCode();
+            return parseResponse(response, requestBody, responseType);
+        } catch (InterruptedException e) {
+            throw new IOException("client send / read interrupted", e);
+        } finally {
+            commitEvent(event, action);
+        }
+    }
 
+    private <T> CompletableFuture<T> executeAsync(Action action, Class<T> responseType) {
+        String requestBody;
+        try {
+            requestBody = mapper.writeValueAsString(action);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        var request = buildRequest(action, requestBody);
+
+        var event = new ApiRequestEvent();
+        event.begin();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    event.statusCode = response.statusCode();
+                    try {
+                        return parseResponse(response, requestBody, responseType);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .whenComplete((res, error) -> commitEvent(event, action));
+    }
+
+    private HttpRequest buildRequest(Action action, String requestBody) {
         HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .uri(URI.create(API_URL + action.getPath()))
                 .header("Content-Type", "application/json")
@@ -67,21 +140,27 @@ public class ApiClient {
             builder = builder.header("Authorization", String.format("agent-key %s", this.secret));
         }
 
-        HttpRequest request = builder
+        return builder
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
+    }
 
-        try {
-            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            var responseBody = response.body();
+    private <T> T parseResponse(HttpResponse<String> response, String requestBody, Class<T> responseType) throws IOException {
+        var responseBody = response.body();
 
-            if (response.statusCode() != 200) {
-                throw new ApiError(response.statusCode(), requestBody, responseBody);
-            }
+        if (response.statusCode() != 200) {
+            throw new ApiError(response.statusCode(), requestBody, responseBody);
+        }
 
-            return mapper.readValue(responseBody, responseType);
-        } catch (InterruptedException e) {
-            throw new IOException("client send / read interrupted", e);
+        return mapper.readValue(responseBody, responseType);
+    }
+
+    private static void commitEvent(ApiRequestEvent event, Action action) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = action.getPath();
+            event.action = action.getType();
+            event.commit();
         }
     }
 }
@@ -49,6 +49,12 @@ public class AccountTunnel {
     @JsonProperty("firewall_id")
     public String firewallId;
 
+    @JsonProperty("local_ip")
+    public String localIp;
+
+    @JsonProperty("local_port")
+    public int localPort;
+
     @Override
     public String toString() {
         return "AccountTunnel{" +
@@ -66,6 +72,8 @@ public class AccountTunnel {
                 ", tunnelType=" + tunnelType +
                 ", portType=" + portType +
                 ", firewallId='" + firewallId + '\'' +
+                ", localIp='" + localIp + '\'' +
+                ", localPort=" + localPort +
                 '}';
     }
 }
@@ -21,9 +21,20 @@ public class ChannelSetup {
     static Logger log = Logger.getLogger(ChannelSetup.class.getName());
 
     public static FindSuitableChannel start() throws UnknownHostException {
+        return start(null);
+    }
+
+    /**
+     * @param avoid control address to try last, used to put a standby session on a different server
+     */
+    public static FindSuitableChannel start(InetAddress avoid) throws UnknownHostException {
         InetAddress[] allByName = InetAddress.getAllByName("control.playit.gg");
         /* prefer IPv6 */
         Arrays.sort(allByName, Comparator.comparingLong(a -> -a.getAddress().length));
+        if (avoid != null) {
+            /* stable sort, keeps the IPv6 preference among the others */
+            Arrays.sort(allByName, Comparator.comparing(avoid::equals));
+        }
 
         var setup = new FindSuitableChannel();
         setup.options = allByName;
@@ -40,8 +51,9 @@ public class ChannelSetup {
             socket.setSoTimeout(3000);
 
             var buffer = ByteBuffer.allocate(1024);
+            var requestId = PendingRequests.nextId();
             {
-                var builder = ControlRequestWriter.requestId(buffer, 1);
+                var builder = ControlRequestWriter.requestId(buffer, requestId);
                 builder.ping(0, null);
             }
             var bytesWritten = buffer.position();
@@ -64,6 +76,11 @@ public class ChannelSetup {
 
                         try {
                             var message = ControlFeedReader.read(in);
+                            if (message instanceof ControlFeedReader.Pong pong && pong.requestId != requestId) {
+                                log.warning("ignoring pong for an earlier request " + pong.requestId);
+                                continue;
+                            }
+
                             if (message instanceof ControlFeedReader.Pong) {
                                 var next = new SetupRequireAuthentication();
                                 next.pong = (ControlFeedReader.Pong) message;
@@ -111,6 +128,7 @@ public class ChannelSetup {
             }
 
             var registerRequest = ByteBuffer.allocate(1024);
+            var requestId = PendingRequests.nextId();
 
             try {
                 var client = new ApiClient(secretKey);
@@ -119,7 +137,7 @@ public class ChannelSetup {
                 req.clientAddr = this.pong.clientAddr;
                 req.tunnelAddr = this.pong.tunnelAddr;
                 var data = client.getSignedAgentRegisterData(req);
-                ControlRequestWriter.requestId(registerRequest, 100).registerBytes(data);
+                ControlRequestWriter.requestId(registerRequest, requestId).registerBytes(data);
             } catch (DecoderException e) {
                 throw new IOException("failed parse hex response from server", e);
             }
@@ -140,6 +158,11 @@ public class ChannelSetup {
                     try {
                         var response = ControlFeedReader.read(packetData);
 
+                        if (response instanceof ControlFeedReader.AgentRegistered registered && registered.requestId != requestId) {
+                            log.warning("ignoring register response for an earlier request " + registered.requestId);
+                            continue;
+                        }
+
                         if (response instanceof ControlFeedReader.AgentRegistered registered) {
                             var channel = new PlayitControlChannel();
                             channel.apiClient = new ApiClient(secretKey);
@@ -0,0 +1,242 @@
+package gg.playit.control;
+
+import gg.playit.messages.ControlFeedReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a second authenticated control session, preferably to another control server, next
+ * to the primary one. Both sessions are read by their own task and feed one queue, so when
+ * the primary fails or goes quiet the standby is promoted without a reconnect and no
+ * NewClient is lost. The tunnel servers may announce a client on both sessions, NewClient
+ * messages are deduplicated by claim token.
+ * <p>
+ * Only {@link #poll(long)} and {@link #close()} are called from the manager's thread.
+ */
+public class ControlFailover implements Closeable {
+    static Logger log = Logger.getLogger(ControlFailover.class.getName());
+
+    /* pings go out every 5 seconds, two missed pongs mean the session is gone */
+    private static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(12);
+    private static final long STANDBY_RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int SEEN_CLAIMS = 1024;
+
+    public static final class Received {
+        public final ControlFeedReader.ControlFeed feed;
+        public final long receivedAtNanos;
+        /* raw bytes, only kept while a capture is running */
+        final byte[] datagram;
+
+        Received(ControlFeedReader.ControlFeed feed, long receivedAtNanos, byte[] datagram) {
+            this.feed = feed;
+            this.receivedAtNanos = receivedAtNanos;
+            this.datagram = datagram;
+        }
+    }
+
+    private final class Session implements Runnable {
+        final PlayitControlChannel channel;
+        final long startedAt = System.nanoTime();
+        volatile IOException failure;
+        volatile boolean closed;
+
+        Session(PlayitControlChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    var message = channel.update();
+                    if (message.isPresent()) {
+                        var datagram = recorder != null ? channel.lastDatagram() : null;
+                        queue.add(new Received(message.get(), channel.lastReceiveNanos(), datagram));
+                    }
+                } catch (IOException e) {
+                    if (!closed) {
+                        failure = e;
+                    }
+                    return;
+                }
+            }
+        }
+
+        boolean healthy(long now) {
+            return failure == null && !closed && now - Math.max(startedAt, channel.lastReceiveNanos()) < STALE_NANOS;
+        }
+
+        void close() {
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        @Override
+        public String toString() {
+            return channel.controlAddress.getHostAddress();
+        }
+    }
+
+    private final String secretKey;
+    private final Executor executor;
+    private final LinkedBlockingQueue<Received> queue = new LinkedBlockingQueue<>();
+
+    private final Map<ByteBuffer, Boolean> seenClaims = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > SEEN_CLAIMS;
+        }
+    };
+
+    private volatile Session primary;
+    private volatile Session standby;
+    private volatile boolean connectingStandby;
+    private volatile long nextStandbyAttempt;
+    private volatile boolean closed;
+    private volatile ControlFeedRecorder recorder;
+
+    public volatile long promotions;
+    public volatile long duplicates;
+
+    /**
+     * @param primary  authenticated session, read by this object from now on and closed with it
+     * @param executor runs one long lived task per session, setting up the standby and then reading it;
+     *                 needs a thread per task rather than a bounded pool
+     */
+    public ControlFailover(PlayitControlChannel primary, String secretKey, Executor executor) {
+        this.secretKey = secretKey;
+        this.executor = executor;
+        this.primary = new Session(primary);
+        executor.execute(this.primary);
+    }
+
+    /**
+     * @return the next message from either session, null on timeout or for a duplicate
+     * @throws IOException if the primary failed and there is no standby to take over
+     */
+    public Received poll(long timeoutMillis) throws IOException {
+        checkSessions();
+
+        Received received;
+        try {
+            received = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for control messages", e);
+        }
+
+        if (received != null && received.feed instanceof ControlFeedReader.NewClient newClient
+                && seenClaims.put(ByteBuffer.wrap(newClient.claimToken), Boolean.TRUE) != null) {
+            duplicates++;
+            return null;
+        }
+
+        /* recorded after deduplication so a capture holds the copy that was served, whichever session sent it */
+        var capture = recorder;
+        if (received != null && capture != null && received.datagram != null) {
+            capture.record(received.datagram, 0, received.datagram.length);
+        }
+        return received;
+    }
+
+    private void checkSessions() throws IOException {
+        long now = System.nanoTime();
+        var current = primary;
+
+        if (!current.healthy(now)) {
+            var next = standby;
+            if (next != null && next.healthy(now)) {
+                log.warning("control session to " + current + (current.failure != null ? " failed: " + current.failure : " stopped responding") +
+                        ", switching to standby session at " + next);
+                primary = next;
+                standby = null;
+                current.close();
+                promotions++;
+            } else if (current.failure != null) {
+                throw current.failure;
+            }
+        }
+
+        var spare = standby;
+        if (spare != null && !spare.healthy(now)) {
+            log.info("standby control session to " + spare + " lost, replacing it");
+            standby = null;
+            spare.close();
+            nextStandbyAttempt = now;
+        }
+
+        if (standby == null && !connectingStandby && now - nextStandbyAttempt >= 0) {
+            startStandby();
+        }
+    }
+
+    private void startStandby() {
+        connectingStandby = true;
+        var avoid = primary.channel.controlAddress;
+
+        try {
+            executor.execute(() -> {
+                Session session;
+                try {
+                    var channel = PlayitControlChannel.setup(secretKey, avoid);
+                    session = new Session(channel);
+                    if (closed) {
+                        session.close();
+                        return;
+                    }
+
+                    log.info("standby control session connected to " + session + " (primary " + avoid.getHostAddress() + ")");
+                    standby = session;
+                } catch (IOException | RuntimeException e) {
+                    log.warning("failed to connect standby control session: " + e);
+                    nextStandbyAttempt = System.nanoTime() + STANDBY_RETRY_NANOS;
+                    return;
+                } finally {
+                    connectingStandby = false;
+                }
+
+                /* the setup task goes on to read the session */
+                session.run();
+            });
+        } catch (RuntimeException e) {
+            /* executor full or shutting down, try again later */
+            connectingStandby = false;
+            nextStandbyAttempt = System.nanoTime() + STANDBY_RETRY_NANOS;
+        }
+    }
+
+    /**
+     * Record the messages of both sessions as {@link #poll(long)} returns them, null to stop recording.
+     */
+    public void setRecorder(ControlFeedRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        primary.close();
+        var spare = standby;
+        if (spare != null) {
+            spare.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        var spare = standby;
+        return "primary " + primary + " (" + primary.channel.requestStats() + "), standby " + (spare == null ? (connectingStandby ? "connecting" : "none") : spare) +
+                ", promotions " + promotions + ", duplicate clients " + duplicates;
+    }
+}
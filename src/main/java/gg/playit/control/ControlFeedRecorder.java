@@ -0,0 +1,71 @@
+package gg.playit.control;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Appends raw control datagrams to a capture file so they can be replayed with {@link ControlFeedReplayer}.
+ * <p>
+ * Format: magic + version header, then per datagram an int length, a long
+ * monotonic timestamp (nanos since capture start) and the datagram bytes.
+ */
+public class ControlFeedRecorder implements Closeable {
+    static Logger log = Logger.getLogger(ControlFeedRecorder.class.getName());
+
+    static final int MAGIC = 0x504c4346; /* "PLCF" */
+    static final int VERSION = 1;
+
+    public final File file;
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private long count;
+    private boolean closed;
+
+    public ControlFeedRecorder(File file) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public synchronized void record(byte[] data, int offset, int length) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            out.writeInt(length);
+            out.writeLong(System.nanoTime() - startNanos);
+            out.write(data, offset, length);
+            count++;
+        } catch (IOException e) {
+            log.warning("failed to write control capture, stopping: " + e);
+            closeQuietly();
+        }
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.close();
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package gg.playit.control;
+
+import gg.playit.messages.ControlFeedReader;
+import gg.playit.messages.DecodeException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Feeds a capture written by {@link ControlFeedRecorder} back through {@link ControlFeedReader}
+ * with the original spacing between datagrams, optionally sped up.
+ */
+public class ControlFeedReplayer {
+    static Logger log = Logger.getLogger(ControlFeedReplayer.class.getName());
+
+    public interface FeedHandler {
+        void handle(ControlFeedReader.ControlFeed feed, long receivedAtNanos) throws IOException;
+    }
+
+    public static class Result {
+        public long datagrams;
+        public long decodeErrors;
+        public long capturedNanos;
+        public long replayNanos;
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "datagrams=" + datagrams +
+                    ", decodeErrors=" + decodeErrors +
+                    ", capturedMs=" + TimeUnit.NANOSECONDS.toMillis(capturedNanos) +
+                    ", replayMs=" + TimeUnit.NANOSECONDS.toMillis(replayNanos) +
+                    '}';
+        }
+    }
+
+    private final File file;
+    private final double speed;
+
+    /**
+     * @param speed 1 for original timing, 10 for ten times faster, 0 to replay without any delay
+     */
+    public ControlFeedReplayer(File file, double speed) {
+        this.file = file;
+        this.speed = speed;
+    }
+
+    public Result replay(FeedHandler handler) throws IOException {
+        var result = new Result();
+
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != ControlFeedRecorder.MAGIC) {
+                throw new IOException("not a control feed capture: " + file);
+            }
+
+            var version = in.readInt();
+            if (version != ControlFeedRecorder.VERSION) {
+                throw new IOException("unsupported capture version: " + version);
+            }
+
+            var replayStart = System.nanoTime();
+            var buffer = new byte[2048];
+
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException done) {
+                    break;
+                }
+
+                var capturedAt = in.readLong();
+                if (length < 0 || length > 65535) {
+                    throw new IOException("corrupt capture entry length: " + length);
+                }
+                if (length > buffer.length) {
+                    buffer = new byte[length];
+                }
+                in.readFully(buffer, 0, length);
+
+                if (speed > 0) {
+                    var waitNanos = (long) (capturedAt / speed) - (System.nanoTime() - replayStart);
+                    if (waitNanos > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(waitNanos);
+                        } catch (InterruptedException e) {
+                            throw new IOException("replay interrupted", e);
+                        }
+                    }
+                }
+
+                result.datagrams++;
+                result.capturedNanos = capturedAt;
+
+                ControlFeedReader.ControlFeed feed;
+                try {
+                    feed = ControlFeedReader.read(ByteBuffer.wrap(buffer, 0, length));
+                } catch (DecodeException | BufferUnderflowException error) {
+                    result.decodeErrors++;
+                    log.warning("failed to decode captured datagram #" + result.datagrams + ": " + error);
+                    continue;
+                }
+
+                handler.handle(feed, System.nanoTime());
+            }
+
+            result.replayNanos = System.nanoTime() - replayStart;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+package gg.playit.control;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests sent on a control channel that haven't been answered yet, keyed by request id.
+ * Each request is resent when its timeout passes, with the timeout doubling every attempt,
+ * and is given up after a few attempts. Timeouts come from a smoothed round trip time in
+ * the same way as TCP's retransmission timer, sampled only from requests answered on the
+ * first attempt since a response can't say which copy it answers.
+ * <p>
+ * Only used from the thread that reads the channel.
+ */
+class PendingRequests {
+    static final class Request {
+        final long id;
+        final byte[] datagram;
+        long sentAt;
+        long timeoutNanos;
+        int attempts = 1;
+
+        Request(long id, byte[] datagram, long now, long timeoutNanos) {
+            this.id = id;
+            this.datagram = datagram;
+            this.sentAt = now;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        long dueAt() {
+            return sentAt + timeoutNanos;
+        }
+    }
+
+    /* ids 1 and 100 were fixed before requests were tracked, start above them; shared so every session's ids are unique */
+    private static final AtomicLong ids = new AtomicLong(1000);
+
+    private static final long MIN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MAX_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(3);
+    private static final int MAX_ATTEMPTS = 4;
+
+    private final LinkedHashMap<Long, Request> pending = new LinkedHashMap<>();
+
+    private long smoothedRttNanos;
+    private long rttVarianceNanos;
+
+    long answered;
+    long retransmitted;
+    long lost;
+    long unmatched;
+
+    static long nextId() {
+        return ids.getAndIncrement();
+    }
+
+    void add(long id, byte[] datagram) {
+        long now = System.nanoTime();
+        pending.put(id, new Request(id, datagram, now, timeoutNanos()));
+    }
+
+    /**
+     * @return the request a response is for, or null if it was unknown or already given up on
+     */
+    Request complete(long id) {
+        var request = pending.remove(id);
+        if (request == null) {
+            unmatched++;
+            return null;
+        }
+
+        answered++;
+        if (request.attempts == 1) {
+            sampleRtt(System.nanoTime() - request.sentAt);
+        }
+        return request;
+    }
+
+    /**
+     * @return requests whose timeout passed and should be sent again, their timers restarted
+     */
+    List<Request> due() {
+        long now = System.nanoTime();
+        List<Request> resend = null;
+
+        for (Iterator<Request> it = pending.values().iterator(); it.hasNext(); ) {
+            var request = it.next();
+            if (now - request.dueAt() < 0) {
+                continue;
+            }
+
+            if (request.attempts >= MAX_ATTEMPTS) {
+                it.remove();
+                lost++;
+                continue;
+            }
+
+            request.attempts++;
+            request.sentAt = now;
+            request.timeoutNanos = Math.min(MAX_TIMEOUT_NANOS, request.timeoutNanos * 2);
+            retransmitted++;
+
+            if (resend == null) {
+                resend = new ArrayList<>();
+            }
+            resend.add(request);
+        }
+
+        return resend == null ? List.of() : resend;
+    }
+
+    /**
+     * @return nanos until the next request is due, or the given maximum
+     */
+    long nanosUntilDue(long max) {
+        long now = System.nanoTime();
+        long wait = max;
+        for (var request : pending.values()) {
+            wait = Math.min(wait, request.dueAt() - now);
+        }
+        return Math.max(0, wait);
+    }
+
+    private void sampleRtt(long rtt) {
+        if (smoothedRttNanos == 0) {
+            smoothedRttNanos = rtt;
+            rttVarianceNanos = rtt / 2;
+            return;
+        }
+
+        rttVarianceNanos = (3 * rttVarianceNanos + Math.abs(smoothedRttNanos - rtt)) / 4;
+        smoothedRttNanos = (7 * smoothedRttNanos + rtt) / 8;
+    }
+
+    long timeoutNanos() {
+        if (smoothedRttNanos == 0) {
+            /* no sample yet, the old fixed receive timeout */
+            return MAX_TIMEOUT_NANOS;
+        }
+        return Math.max(MIN_TIMEOUT_NANOS, Math.min(MAX_TIMEOUT_NANOS, smoothedRttNanos + 4 * rttVarianceNanos));
+    }
+
+    /**
+     * @return smoothed round trip time in milliseconds, 0 before the first answer
+     */
+    long rttMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(smoothedRttNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "rtt " + rttMillis() + "ms, " + pending.size() + " in flight, answered " + answered +
+                ", retransmitted " + retransmitted + ", lost " + lost + ", unmatched " + unmatched;
+    }
+}
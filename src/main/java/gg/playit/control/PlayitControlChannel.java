@@ -1,6 +1,8 @@
 package gg.playit.control;
 
 import gg.playit.api.ApiClient;
+import gg.playit.jfr.ControlPingEvent;
+import gg.playit.jfr.ControlPongEvent;
 import gg.playit.messages.ControlFeedReader;
 import gg.playit.messages.ControlRequestWriter;
 import gg.playit.messages.DecodeException;
@@ -16,6 +18,7 @@ import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static gg.playit.control.ChannelSetup.CONTROL_PORT;
@@ -31,14 +34,26 @@ public class PlayitControlChannel implements Closeable {
     ControlFeedReader.AgentRegistered registered;
 
     private final ByteBuffer sendBuffer = ByteBuffer.allocate(2048);
+    private final PendingRequests pending = new PendingRequests();
 
     private long lastKeepAlive;
     private long lastPing;
+    /* read by ControlFailover from another thread */
+    private volatile long lastReceiveNanos;
+    private ControlFeedRecorder recorder;
+    private DatagramPacket lastPacket;
 
     public static PlayitControlChannel setup(String secretKey) throws IOException {
+        return setup(secretKey, null);
+    }
+
+    /**
+     * @param avoid control address to use only if no other one answers, may be null
+     */
+    public static PlayitControlChannel setup(String secretKey, InetAddress avoid) throws IOException {
         try {
             return ChannelSetup
-                    .start()
+                    .start(avoid)
                     .findChannel()
                     .authenticate(secretKey);
         } catch (DecodeException | BufferUnderflowException error) {
@@ -63,12 +78,19 @@ public class PlayitControlChannel implements Closeable {
                 this.sendKeepAlive();
             }
 
-            this.socket.setSoTimeout(3_000);
+            for (var request : pending.due()) {
+                sendPacket(request.datagram, request.datagram.length);
+            }
+
+            /* wake up in time to resend whatever is due next */
+            var waitMillis = TimeUnit.NANOSECONDS.toMillis(pending.nanosUntilDue(TimeUnit.SECONDS.toNanos(3)));
+            this.socket.setSoTimeout((int) Math.max(50, waitMillis));
 
             DatagramPacket rxPacket = new DatagramPacket(new byte[2048], 0, 2048);
 
             try {
                 this.socket.receive(rxPacket);
+                this.lastReceiveNanos = System.nanoTime();
             } catch (SocketTimeoutException ignore) {
                 return Optional.empty();
             }
@@ -78,17 +100,41 @@ public class PlayitControlChannel implements Closeable {
                 return Optional.empty();
             }
 
+            lastPacket = rxPacket;
+            if (recorder != null) {
+                recorder.record(rxPacket.getData(), rxPacket.getOffset(), rxPacket.getLength());
+            }
+
             var buffer = ByteBuffer.wrap(
                     rxPacket.getData(),
                     rxPacket.getOffset(),
                     rxPacket.getLength()
             );
 
+            var responseId = ControlFeedReader.responseRequestId(buffer);
             var read = ControlFeedReader.read(buffer);
 
+            PendingRequests.Request request = null;
+            if (responseId >= 0 && read != ControlFeedReader.Error.RequestQueued && read != ControlFeedReader.Error.TryAgainLater) {
+                /* queued requests stay pending, the retransmission asks again */
+                request = pending.complete(responseId);
+            }
+
             if (read instanceof ControlFeedReader.Pong pong) {
                 this.latestPong = pong;
 
+                var event = new ControlPongEvent();
+                if (event.shouldCommit()) {
+                    event.controlAddress = this.controlAddress.getHostAddress();
+                    /* a retransmitted ping can't tell which copy was answered, fall back to the echoed send time */
+                    event.rtt = request != null && request.attempts == 1
+                            ? TimeUnit.NANOSECONDS.toMillis(lastReceiveNanos - request.sentAt)
+                            : Instant.now().toEpochMilli() - pong.requestNow;
+                    event.serverId = pong.serverId;
+                    event.dataCenterId = pong.dataCenterId;
+                    event.commit();
+                }
+
                 if (pong.sessionExpireAt != 0) {
                     this.registered.expiresAt = pong.sessionExpireAt;
                 }
@@ -102,20 +148,68 @@ public class PlayitControlChannel implements Closeable {
         }
     }
 
+    /**
+     * @return copy of the datagram the last message returned by {@link #update()} was read from
+     */
+    byte[] lastDatagram() {
+        var packet = lastPacket;
+        return Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+    }
+
+    /**
+     * Record every datagram received from the control server, null to stop recording.
+     */
+    public void setRecorder(ControlFeedRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the last datagram was received
+     */
+    public long lastReceiveNanos() {
+        return lastReceiveNanos;
+    }
+
+    /**
+     * @return round trip time, requests in flight and retransmission counters for status output
+     */
+    public String requestStats() {
+        return pending.toString();
+    }
+
+    public InetAddress controlAddress() {
+        return controlAddress;
+    }
+
     private void sendPing(long now) throws IOException {
         sendBuffer.clear();
-        ControlRequestWriter.requestId(sendBuffer, 100).ping(now, this.registered.id);
-        this.sendPacket();
+        var id = PendingRequests.nextId();
+        ControlRequestWriter.requestId(sendBuffer, id).ping(now, this.registered.id);
+        this.sendTracked(id);
+
+        var event = new ControlPingEvent();
+        if (event.shouldCommit()) {
+            event.controlAddress = this.controlAddress.getHostAddress();
+            event.requestNow = now;
+            event.commit();
+        }
     }
 
     private void sendKeepAlive() throws IOException {
         sendBuffer.clear();
-        ControlRequestWriter.requestId(sendBuffer, 100).keepAlive(this.registered.id);
-        this.sendPacket();
+        var id = PendingRequests.nextId();
+        ControlRequestWriter.requestId(sendBuffer, id).keepAlive(this.registered.id);
+        this.sendTracked(id);
+    }
+
+    private void sendTracked(long id) throws IOException {
+        var datagram = Arrays.copyOf(sendBuffer.array(), sendBuffer.position());
+        pending.add(id, datagram);
+        sendPacket(datagram, datagram.length);
     }
 
-    private void sendPacket() throws IOException {
-        DatagramPacket p = new DatagramPacket(sendBuffer.array(), sendBuffer.arrayOffset(), sendBuffer.position());
+    private void sendPacket(byte[] data, int length) throws IOException {
+        DatagramPacket p = new DatagramPacket(data, 0, length);
         p.setAddress(this.controlAddress);
         p.setPort(CONTROL_PORT);
         this.socket.send(p);
@@ -0,0 +1,24 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gg.playit.ApiRequest")
+@Label("API Request")
+@Category({"playit.gg", "API"})
+@Description("HTTPS request to the playit.gg API")
+@StackTrace(false)
+public class ApiRequestEvent extends jdk.jfr.Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Action")
+    public String action;
+
+    @Label("Status Code")
+    @Description("HTTP status code, 0 if no response was received")
+    public int statusCode;
+}
@@ -0,0 +1,17 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gg.playit.ClaimConfirm")
+@Label("Claim Confirm")
+@Category({"playit.gg", "Tunnel"})
+@Description("Time from sending the claim token until the tunnel server confirmed the claim")
+@StackTrace(false)
+public class ClaimConfirmEvent extends jdk.jfr.Event {
+    @Label("Claim Address")
+    public String claimAddress;
+}
@@ -0,0 +1,20 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gg.playit.ClaimConnect")
+@Label("Claim Connect")
+@Category({"playit.gg", "Tunnel"})
+@Description("TCP connect to the tunnel server to claim a client")
+@StackTrace(false)
+public class ClaimConnectEvent extends jdk.jfr.Event {
+    @Label("Claim Address")
+    public String claimAddress;
+
+    @Label("Success")
+    public boolean success;
+}
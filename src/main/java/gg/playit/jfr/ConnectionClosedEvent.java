@@ -0,0 +1,35 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("gg.playit.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"playit.gg", "Tunnel"})
+@Description("A tunneled client connection was closed")
+@StackTrace(false)
+public class ConnectionClosedEvent extends jdk.jfr.Event {
+    @Label("Peer Address")
+    public String peerAddress;
+
+    @Label("Injected")
+    @Description("true if the connection was injected into the server pipeline, false for the fallback relay")
+    public boolean injected;
+
+    @Label("Bytes From Tunnel")
+    @DataAmount
+    public long bytesFromTunnel;
+
+    @Label("Bytes To Tunnel")
+    @DataAmount
+    public long bytesToTunnel;
+
+    @Label("Lifetime")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lifetime;
+}
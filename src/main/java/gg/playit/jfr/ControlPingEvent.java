@@ -0,0 +1,21 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gg.playit.ControlPing")
+@Label("Control Ping")
+@Category({"playit.gg", "Control"})
+@Description("Ping sent on the control channel")
+@StackTrace(false)
+public class ControlPingEvent extends jdk.jfr.Event {
+    @Label("Control Address")
+    public String controlAddress;
+
+    @Label("Request Now")
+    @Description("Epoch millis sent with the ping and echoed back in the pong")
+    public long requestNow;
+}
@@ -0,0 +1,28 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("gg.playit.ControlPong")
+@Label("Control Pong")
+@Category({"playit.gg", "Control"})
+@Description("Pong received on the control channel")
+@StackTrace(false)
+public class ControlPongEvent extends jdk.jfr.Event {
+    @Label("Control Address")
+    public String controlAddress;
+
+    @Label("Round Trip Time")
+    @Timespan(Timespan.MILLISECONDS)
+    public long rtt;
+
+    @Label("Server Id")
+    public long serverId;
+
+    @Label("Data Center Id")
+    public int dataCenterId;
+}
@@ -0,0 +1,20 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gg.playit.FallbackConnect")
+@Label("Fallback Connect")
+@Category({"playit.gg", "Tunnel"})
+@Description("TCP connect to the local Minecraft server when pipeline injection is not available")
+@StackTrace(false)
+public class FallbackConnectEvent extends jdk.jfr.Event {
+    @Label("Backend Address")
+    public String backendAddress;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,30 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gg.playit.NewClient")
+@Label("New Client")
+@Category({"playit.gg", "Control"})
+@Description("NewClient message received from the control channel")
+@StackTrace(false)
+public class NewClientEvent extends jdk.jfr.Event {
+    @Label("Peer Address")
+    public String peerAddress;
+
+    @Label("Connect Address")
+    public String connectAddress;
+
+    @Label("Tunnel Server Id")
+    public long tunnelServerId;
+
+    @Label("Data Center Id")
+    public int dataCenterId;
+
+    @Label("Admitted")
+    @Description("false if the client was already being tracked")
+    public boolean admitted;
+}
@@ -0,0 +1,26 @@
+package gg.playit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("gg.playit.PipelineInject")
+@Label("Pipeline Injection")
+@Category({"playit.gg", "Tunnel"})
+@Description("Injecting a tunnel channel into the Minecraft server's Netty pipeline")
+@StackTrace(false)
+public class PipelineInjectEvent extends jdk.jfr.Event {
+    @Label("Peer Address")
+    public String peerAddress;
+
+    @Label("Success")
+    public boolean success;
+
+    @Label("Reflection Time")
+    @Description("Time spent resolving and constructing Minecraft objects through reflection")
+    @Timespan(Timespan.NANOSECONDS)
+    public long reflectionTime;
+}
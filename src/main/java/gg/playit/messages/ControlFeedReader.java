@@ -7,6 +7,16 @@ import java.util.Arrays;
 
 public class ControlFeedReader {
 
+    /**
+     * @return request id of a response, without consuming the buffer, or -1 if the message is not a response
+     */
+    public static long responseRequestId(ByteBuffer in) {
+        if (in.remaining() < 12 || in.order(ByteOrder.BIG_ENDIAN).getInt(in.position()) != 1) {
+            return -1;
+        }
+        return in.getLong(in.position() + 4);
+    }
+
     public static ControlFeed read(ByteBuffer in) {
         in.order(ByteOrder.BIG_ENDIAN);
 
@@ -0,0 +1,209 @@
+package gg.playit.minecraft;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Picks the backend for a relayed connection from the hostname in the player's handshake
+ * or the tunnel address they connected to, so one tunnel can front a small network
+ * without a separate proxy. Each route lists backends in order of preference; a backend
+ * that fails a connect is skipped until a health check reaches it again.
+ */
+public class BackendRouter {
+    static Logger log = Logger.getLogger(BackendRouter.class.getName());
+
+    private static final int HEALTH_CHECK_TIMEOUT_MILLIS = 3000;
+
+    public static final class Backend {
+        public final BackendTarget target;
+        private volatile boolean healthy = true;
+        public volatile long failures;
+
+        /* connection setup is prepared once and cloned onto the tunnel's event loop */
+        private volatile Bootstrap template;
+        private volatile SocketProfile templateProfile;
+
+        Backend(BackendTarget target) {
+            this.target = target;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return bootstrap with group, channel and options set, the caller adds the handler
+         */
+        Bootstrap bootstrap(EventLoop loop, SocketProfile profile) {
+            var prepared = template;
+            if (prepared == null || templateProfile != profile) {
+                prepared = new Bootstrap();
+                target.configure(prepared, loop, profile);
+                templateProfile = profile;
+                template = prepared;
+            }
+
+            /* unix sockets keep their own epoll group */
+            return prepared.clone(target.kind == BackendTarget.Kind.UNIX ? prepared.config().group() : loop);
+        }
+
+        void markFailed() {
+            failures++;
+            if (healthy) {
+                healthy = false;
+                log.warning("backend " + target + " is down, skipping it until a health check succeeds");
+            }
+        }
+
+        void markHealthy() {
+            if (!healthy) {
+                healthy = true;
+                log.info("backend " + target + " is reachable again");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return target + (healthy ? " (up" : " (down") + ", " + failures + " failures)";
+        }
+    }
+
+    public static final class Route {
+        /* hostname, *.suffix or the tunnel's ip:port */
+        public final String match;
+        public final List<Backend> backends;
+
+        Route(String match, List<Backend> backends) {
+            this.match = match;
+            this.backends = backends;
+        }
+
+        /**
+         * @return healthy backends in order of preference, then the rest in case the checks are wrong
+         */
+        public List<Backend> candidates() {
+            var ordered = new ArrayList<Backend>(backends.size());
+            for (var backend : backends) {
+                if (backend.healthy) {
+                    ordered.add(backend);
+                }
+            }
+            for (var backend : backends) {
+                if (!backend.healthy) {
+                    ordered.add(backend);
+                }
+            }
+            return ordered;
+        }
+
+        boolean matches(String hostname, String connectAddress) {
+            if (match.startsWith("*.")) {
+                return hostname != null && hostname.endsWith(match.substring(1));
+            }
+            return match.equals(hostname) || match.equals(connectAddress);
+        }
+
+        @Override
+        public String toString() {
+            return match + " -> " + backends;
+        }
+    }
+
+    private final List<Route> routes;
+
+    private BackendRouter(List<Route> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * Build the router from the routes list in config.yml.
+     *
+     * @return the router, or null if no valid routes are configured
+     */
+    static BackendRouter parse(List<Map<?, ?>> config, List<String> problems) {
+        var routes = new ArrayList<Route>();
+
+        for (var entry : config) {
+            var match = entry.get("match");
+            var targets = entry.get("backends");
+            if (!(match instanceof String matchText) || matchText.isEmpty()) {
+                problems.add(PlayitBukkit.CFG_ROUTES + ": route without a match, skipping it");
+                continue;
+            }
+            if (targets instanceof String single) {
+                targets = List.of(single);
+            }
+            if (!(targets instanceof List<?> list) || list.isEmpty()) {
+                problems.add(PlayitBukkit.CFG_ROUTES + ": route " + matchText + " has no backends, skipping it");
+                continue;
+            }
+
+            var backends = new ArrayList<Backend>();
+            for (var target : list) {
+                try {
+                    backends.add(new Backend(BackendTarget.parse(String.valueOf(target))));
+                } catch (IllegalArgumentException e) {
+                    problems.add(PlayitBukkit.CFG_ROUTES + ": route " + matchText + ": " + e.getMessage());
+                }
+            }
+
+            if (!backends.isEmpty()) {
+                routes.add(new Route(matchText.toLowerCase(), List.copyOf(backends)));
+            }
+        }
+
+        return routes.isEmpty() ? null : new BackendRouter(List.copyOf(routes));
+    }
+
+    /**
+     * @param hostname       from the handshake, see {@link MinecraftHandshake#hostname()}, null if unknown
+     * @param connectAddress tunnel address the player connected to, as ip:port
+     * @return first matching route, or null to use the agent's default backend
+     */
+    public Route select(String hostname, String connectAddress) {
+        for (var route : routes) {
+            if (route.matches(hostname, connectAddress)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    public List<Route> routes() {
+        return routes;
+    }
+
+    /**
+     * Try a connection to every backend and update its health. Only schedules work on the
+     * event loops, safe to call from the server thread.
+     */
+    public void checkHealth(EventLoopGroup group, SocketProfile profile) {
+        for (var route : routes) {
+            for (var backend : route.backends) {
+                var bootstrap = backend.bootstrap(group.next(), profile);
+                if (backend.target.kind != BackendTarget.Kind.LOCAL) {
+                    bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, HEALTH_CHECK_TIMEOUT_MILLIS);
+                }
+                bootstrap.handler(new ChannelInboundHandlerAdapter());
+
+                bootstrap.connect().addListener((ChannelFutureListener) future -> {
+                    if (future.isSuccess()) {
+                        backend.markHealthy();
+                        future.channel().close();
+                    } else {
+                        backend.markFailed();
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package gg.playit.minecraft;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Where the fallback relay sends a player: a TCP address, a Unix domain socket (native
+ * epoll only) or a netty {@link LocalChannel} listener in this JVM. Unix and local
+ * backends skip the loopback TCP stack and don't use an ephemeral port per player.
+ */
+public final class BackendTarget {
+    public enum Kind {
+        TCP,
+        UNIX,
+        LOCAL
+    }
+
+    /* domain socket channels can't use the nio event loops, they share one small epoll group */
+    private static EventLoopGroup epollGroup;
+
+    public final Kind kind;
+    public final SocketAddress address;
+
+    private BackendTarget(Kind kind, SocketAddress address) {
+        this.kind = kind;
+        this.address = address;
+    }
+
+    public static BackendTarget tcp(InetSocketAddress address) {
+        return new BackendTarget(Kind.TCP, address);
+    }
+
+    /**
+     * Parse {@code host:port}, {@code unix:/path/to/socket} or {@code local:<name>}.
+     *
+     * @throws IllegalArgumentException with a message for the admin if the value is invalid
+     */
+    public static BackendTarget parse(String value) {
+        if (value.startsWith("unix:")) {
+            var path = value.substring("unix:".length());
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("unix backend needs a socket path, like unix:/run/minecraft.sock");
+            }
+            if (!Epoll.isAvailable()) {
+                throw new IllegalArgumentException("unix sockets need netty's native epoll transport, which is not available: " + Epoll.unavailabilityCause());
+            }
+            return new BackendTarget(Kind.UNIX, new DomainSocketAddress(path));
+        }
+
+        if (value.startsWith("local:")) {
+            var name = value.substring("local:".length());
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("local backend needs the name of a LocalServerChannel, like local:velocity");
+            }
+            return new BackendTarget(Kind.LOCAL, new LocalAddress(name));
+        }
+
+        var address = parseHostPort(value);
+        if (address == null) {
+            throw new IllegalArgumentException("expected host:port, unix:/path or local:<name>, got \"" + value + "\"");
+        }
+        return tcp(address);
+    }
+
+    /**
+     * Parse host:port or [ipv6]:port. The host is resolved when connecting so DNS changes are followed.
+     */
+    private static InetSocketAddress parseHostPort(String value) {
+        int split = value.lastIndexOf(':');
+        if (split <= 0 || split == value.length() - 1) {
+            return null;
+        }
+
+        var host = value.substring(0, split);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+
+        try {
+            int port = Integer.parseInt(value.substring(split + 1));
+            if (port < 1 || port > 65535) {
+                return null;
+            }
+            return InetSocketAddress.createUnresolved(host, port);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Set group, channel type, options and address for a connection to this backend.
+     *
+     * @param loop event loop of the tunnel channel, used when the channel type allows it
+     */
+    public void configure(Bootstrap bootstrap, EventLoop loop, SocketProfile profile) {
+        switch (kind) {
+            case TCP -> {
+                bootstrap.group(loop);
+                bootstrap.channel(NioSocketChannel.class);
+                profile.apply(bootstrap, 0);
+            }
+            case LOCAL -> {
+                /* no socket underneath, so none of the TCP options apply */
+                bootstrap.group(loop);
+                bootstrap.channel(LocalChannel.class);
+            }
+            case UNIX -> {
+                bootstrap.group(epollGroup());
+                bootstrap.channel(EpollDomainSocketChannel.class);
+            }
+        }
+
+        bootstrap.remoteAddress(address);
+    }
+
+    private static synchronized EventLoopGroup epollGroup() {
+        if (epollGroup == null) {
+            epollGroup = new EpollEventLoopGroup(2);
+        }
+        return epollGroup;
+    }
+
+    /**
+     * Stop the shared epoll group if it was started, called on plugin disable.
+     */
+    public static synchronized void shutdown() {
+        if (epollGroup != null) {
+            epollGroup.shutdownGracefully();
+            epollGroup = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case TCP -> {
+                var tcp = (InetSocketAddress) address;
+                yield tcp.getHostString() + ":" + tcp.getPort();
+            }
+            case UNIX -> "unix:" + ((DomainSocketAddress) address).path();
+            case LOCAL -> "local:" + ((LocalAddress) address).id();
+        };
+    }
+}
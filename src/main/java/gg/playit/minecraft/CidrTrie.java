@@ -0,0 +1,255 @@
+package gg.playit.minecraft;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IPv4 and IPv6 allow/deny ranges compiled into a binary trie held in int arrays. A lookup
+ * walks at most one node per address bit and allocates nothing; the longest matching
+ * prefix decides, addresses outside every range get the default.
+ * <p>
+ * Rules file format, one rule per line, # starts a comment:
+ * <pre>
+ * default allow
+ * deny 203.0.113.0/24
+ * allow 203.0.113.7
+ * deny 2001:db8::/32
+ * </pre>
+ */
+public class CidrTrie {
+    private static final int ROOT_V4 = 0;
+    private static final int ROOT_V6 = 1;
+
+    /* two children per node, 0 is "none" since the roots are never children */
+    private final int[] children;
+    /* rule index + 1 per node, 0 for nodes that only lead to longer prefixes */
+    private final int[] nodeRule;
+
+    private final String[] ruleText;
+    private final boolean[] ruleDeny;
+    private final long[] ruleHits;
+    private final boolean defaultDeny;
+
+    public volatile long allowed;
+    public volatile long denied;
+
+    private CidrTrie(int[] children, int[] nodeRule, String[] ruleText, boolean[] ruleDeny, boolean defaultDeny) {
+        this.children = children;
+        this.nodeRule = nodeRule;
+        this.ruleText = ruleText;
+        this.ruleDeny = ruleDeny;
+        this.ruleHits = new long[ruleText.length];
+        this.defaultDeny = defaultDeny;
+    }
+
+    /**
+     * @param ip 4 or 16 bytes, as in {@code SocketAddr.ipBytes}
+     */
+    public boolean allows(byte[] ip) {
+        int rule = match(ip);
+
+        boolean deny;
+        if (rule < 0) {
+            deny = defaultDeny;
+        } else {
+            ruleHits[rule]++;
+            deny = ruleDeny[rule];
+        }
+
+        if (deny) {
+            denied++;
+        } else {
+            allowed++;
+        }
+        return !deny;
+    }
+
+    /**
+     * @return index of the rule with the longest matching prefix, -1 if none
+     */
+    int match(byte[] ip) {
+        int node = ip.length == 4 ? ROOT_V4 : ROOT_V6;
+        int best = nodeRule[node];
+
+        for (int bit = 0, bits = ip.length * 8; bit < bits; bit++) {
+            node = children[node * 2 + ((ip[bit >>> 3] >>> (7 - (bit & 7))) & 1)];
+            if (node == 0) {
+                break;
+            }
+            if (nodeRule[node] != 0) {
+                best = nodeRule[node];
+            }
+        }
+
+        return best - 1;
+    }
+
+    public int size() {
+        return ruleText.length;
+    }
+
+    /**
+     * @return the rules with the most hits, most first, formatted for display
+     */
+    public List<String> topRules(int limit) {
+        var order = new ArrayList<Integer>();
+        for (int i = 0; i < ruleText.length; i++) {
+            if (ruleHits[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> Long.compare(ruleHits[b], ruleHits[a]));
+
+        var lines = new ArrayList<String>();
+        for (int i = 0; i < order.size() && i < limit; i++) {
+            int rule = order.get(i);
+            lines.add(ruleText[rule] + ": " + ruleHits[rule] + " hits");
+        }
+        return lines;
+    }
+
+    /**
+     * Compile a rules file.
+     *
+     * @param problems receives a message for each line that can't be used, the line is skipped
+     */
+    public static CidrTrie load(Path file, List<String> problems) throws IOException {
+        var builder = new Builder();
+
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                var parts = line.split("\\s+");
+                if (parts.length != 2) {
+                    problems.add(file.getFileName() + ":" + lineNumber + ": expected \"allow <cidr>\", \"deny <cidr>\" or \"default allow|deny\"");
+                    continue;
+                }
+
+                boolean isDefault = parts[0].equalsIgnoreCase("default");
+                var action = isDefault ? parts[1] : parts[0];
+
+                boolean deny;
+                if (action.equalsIgnoreCase("deny")) {
+                    deny = true;
+                } else if (action.equalsIgnoreCase("allow")) {
+                    deny = false;
+                } else {
+                    problems.add(file.getFileName() + ":" + lineNumber + ": unknown action \"" + action + "\"");
+                    continue;
+                }
+
+                if (isDefault) {
+                    builder.defaultDeny = deny;
+                    continue;
+                }
+
+                try {
+                    builder.add(parts[1], deny, line);
+                } catch (IllegalArgumentException e) {
+                    problems.add(file.getFileName() + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static final class Builder {
+        private int[] children = new int[1024];
+        private int[] nodeRule = new int[512];
+        private int nodes = 2;
+
+        private final List<String> ruleText = new ArrayList<>();
+        private final List<Boolean> ruleDeny = new ArrayList<>();
+        boolean defaultDeny;
+
+        void add(String cidr, boolean deny, String text) {
+            int slash = cidr.indexOf('/');
+            var addressText = slash < 0 ? cidr : cidr.substring(0, slash);
+
+            /* literals only, getByName would otherwise resolve hostnames */
+            if (!addressText.matches("[0-9a-fA-F:.]+")) {
+                throw new IllegalArgumentException("\"" + cidr + "\" is not an ip address or range");
+            }
+
+            byte[] ip;
+            try {
+                ip = InetAddress.getByName(addressText).getAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("\"" + cidr + "\" is not an ip address or range");
+            }
+
+            int prefix = ip.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(cidr.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    prefix = -1;
+                }
+                if (prefix < 0 || prefix > ip.length * 8) {
+                    throw new IllegalArgumentException("invalid prefix length in \"" + cidr + "\"");
+                }
+            }
+
+            int node = ip.length == 4 ? ROOT_V4 : ROOT_V6;
+            for (int bit = 0; bit < prefix; bit++) {
+                int slot = node * 2 + ((ip[bit >>> 3] >>> (7 - (bit & 7))) & 1);
+                if (children[slot] == 0) {
+                    children[slot] = newNode();
+                }
+                node = children[slot];
+            }
+
+            /* a repeated range keeps the last rule */
+            ruleText.add(text);
+            ruleDeny.add(deny);
+            nodeRule[node] = ruleText.size();
+        }
+
+        private int newNode() {
+            if (nodes == nodeRule.length) {
+                nodeRule = Arrays.copyOf(nodeRule, nodes * 2);
+                children = Arrays.copyOf(children, nodes * 4);
+            }
+            return nodes++;
+        }
+
+        CidrTrie build() {
+            var deny = new boolean[ruleDeny.size()];
+            for (int i = 0; i < deny.length; i++) {
+                deny[i] = ruleDeny.get(i);
+            }
+            return new CidrTrie(
+                    Arrays.copyOf(children, nodes * 2),
+                    Arrays.copyOf(nodeRule, nodes),
+                    ruleText.toArray(new String[0]),
+                    deny,
+                    defaultDeny
+            );
+        }
+    }
+
+    @Override
+    public String toString() {
+        return size() + " ip rules (default " + (defaultDeny ? "deny" : "allow") + "), allowed " + allowed + ", denied " + denied;
+    }
+}
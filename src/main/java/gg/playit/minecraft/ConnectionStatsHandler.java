@@ -0,0 +1,71 @@
+package gg.playit.minecraft;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts raw bytes moving through a tunnel channel. Sits at the head of the
+ * pipeline so it sees the wire bytes for both the injected and fallback path.
+ * Only touched from the channel's event loop.
+ */
+class ConnectionStatsHandler extends ChannelDuplexHandler {
+    static final String NAME = "playit_stats";
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    final long createdAt = System.nanoTime();
+    long bytesRead;
+    long bytesWritten;
+    /* highest combined rate seen over a one second window */
+    long peakBytesPerSecond;
+
+    private long windowStart = createdAt;
+    private long windowBytes;
+
+    /* run once on the next write, used to spot the first byte the server sends back */
+    Runnable onNextWrite;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf buf) {
+            bytesRead += buf.readableBytes();
+            accountRate(buf.readableBytes());
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf buf) {
+            bytesWritten += buf.readableBytes();
+            accountRate(buf.readableBytes());
+        }
+
+        if (onNextWrite != null) {
+            var callback = onNextWrite;
+            onNextWrite = null;
+            callback.run();
+        }
+
+        super.write(ctx, msg, promise);
+    }
+
+    private void accountRate(int bytes) {
+        var now = System.nanoTime();
+        var elapsed = now - windowStart;
+
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            var rate = windowBytes * RATE_WINDOW_NANOS / elapsed;
+            if (rate > peakBytesPerSecond) {
+                peakBytesPerSecond = rate;
+            }
+            windowStart = now;
+            windowBytes = 0;
+        }
+
+        windowBytes += bytes;
+    }
+}
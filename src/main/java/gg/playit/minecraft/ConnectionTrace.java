@@ -0,0 +1,99 @@
+package gg.playit.minecraft;
+
+import java.util.Arrays;
+
+/**
+ * Timing breakdown of one tunneled connection, from the control datagram
+ * carrying NewClient to the first byte the server sends back. Spans are
+ * sequential, each one ends where the next begins.
+ */
+public class ConnectionTrace {
+    public enum Span {
+        CONTROL_RECEIVE("control receive"),
+        ADMISSION("admission"),
+        DNS("dns"),
+        CLAIM_CONNECT("claim connect"),
+        TOKEN_WRITE("token write"),
+        CONFIRM_READ("confirm read"),
+        INJECTION("reflection injection"),
+        BACKEND_CONNECT("backend connect"),
+        FIRST_BACKEND_BYTE("first backend byte");
+
+        public final String label;
+
+        Span(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Span[] SPANS = Span.values();
+
+    public final String peer;
+    private final long startNanos;
+    private final long[] spanNanos = new long[SPANS.length];
+    private long mark;
+    private long endNanos;
+    private boolean complete;
+
+    /**
+     * @param receivedAtNanos {@link System#nanoTime()} when the control datagram was received
+     */
+    public ConnectionTrace(String peer, long receivedAtNanos) {
+        this.peer = peer;
+        this.startNanos = receivedAtNanos;
+        this.mark = receivedAtNanos;
+        Arrays.fill(spanNanos, -1);
+    }
+
+    /**
+     * Close a span at the current time. Spans are only ever ended from one thread at a time
+     * (control thread, then the connection's event loop).
+     */
+    public void end(Span span) {
+        var now = System.nanoTime();
+        spanNanos[span.ordinal()] = now - mark;
+        mark = now;
+    }
+
+    void finish(boolean complete) {
+        this.endNanos = mark;
+        this.complete = complete;
+    }
+
+    public long totalNanos() {
+        return endNanos - startNanos;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append(peer).append(' ')
+                .append(complete ? "total " : "incomplete after ")
+                .append(millis(totalNanos())).append(" [");
+
+        var first = true;
+        for (var span : SPANS) {
+            var nanos = spanNanos[span.ordinal()];
+            if (nanos < 0) {
+                continue;
+            }
+
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+
+            sb.append(span.label).append(' ').append(millis(nanos));
+        }
+
+        return sb.append(']').toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,38 @@
+package gg.playit.minecraft;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Bounded ring of finished connection traces, oldest entries are overwritten.
+ */
+public class ConnectionTraceBuffer {
+    private final ConnectionTrace[] traces;
+    private int next;
+    private int size;
+
+    public ConnectionTraceBuffer(int capacity) {
+        this.traces = new ConnectionTrace[capacity];
+    }
+
+    public synchronized void add(ConnectionTrace trace) {
+        traces[next] = trace;
+        next = (next + 1) % traces.length;
+        if (size < traces.length) {
+            size++;
+        }
+    }
+
+    public List<ConnectionTrace> slowest(int count) {
+        var copy = new ArrayList<ConnectionTrace>(size);
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                copy.add(traces[i]);
+            }
+        }
+
+        copy.sort(Comparator.comparingLong(ConnectionTrace::totalNanos).reversed());
+        return copy.subList(0, Math.min(count, copy.size()));
+    }
+}
@@ -0,0 +1,177 @@
+package gg.playit.minecraft;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops junk and flooding connections on the event loop, after the handshake has been read
+ * but before any server handlers or NMS objects are created for them. Counts handshakes in
+ * a sliding window per source ip and per /24 (IPv4) or /64 (IPv6) prefix.
+ * <p>
+ * Counters live in fixed size open addressing tables of primitive arrays, so a flood from
+ * many addresses costs no allocation and can't grow memory; when a probe run is full the
+ * least used slot is taken over.
+ */
+public class HandshakeFilter {
+    public enum Verdict {
+        PASS,
+        INVALID,
+        RATE_LIMITED
+    }
+
+    private static final int SLOTS = 8192;
+    private static final int PROBES = 8;
+
+    private final PlayitSettings settings;
+    private final Counters perIp = new Counters(SLOTS);
+    private final Counters perPrefix = new Counters(SLOTS);
+
+    public volatile long passed;
+    public volatile long invalid;
+    public volatile long rateLimited;
+
+    public HandshakeFilter(PlayitSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @param handshake result of {@link MinecraftHandshake#peek}, null if the bytes were not a handshake
+     * @param legacyPing true if the bytes are a pre-1.7 server list ping, which is let through
+     */
+    public Verdict check(MinecraftHandshake handshake, boolean legacyPing, InetAddress source) {
+        if (!legacyPing && !isPlausible(handshake)) {
+            invalid++;
+            return Verdict.INVALID;
+        }
+
+        if (!allow(source)) {
+            rateLimited++;
+            return Verdict.RATE_LIMITED;
+        }
+
+        passed++;
+        return Verdict.PASS;
+    }
+
+    static boolean isPlausible(MinecraftHandshake handshake) {
+        if (handshake == null) {
+            return false;
+        }
+        if (handshake.nextState < MinecraftHandshake.STATE_STATUS || handshake.nextState > MinecraftHandshake.STATE_TRANSFER) {
+            return false;
+        }
+        return handshake.protocolVersion > 0 && !handshake.hostname().isEmpty();
+    }
+
+    private synchronized boolean allow(InetAddress source) {
+        long windowNanos = TimeUnit.SECONDS.toNanos(settings.handshakeLimitWindowSeconds);
+        long now = System.nanoTime();
+        long window = now / windowNanos;
+        double elapsed = (double) (now % windowNanos) / windowNanos;
+
+        var bytes = source.getAddress();
+        long ipKey;
+        long prefixKey;
+        if (source instanceof Inet4Address) {
+            int ip = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+            ipKey = (1L << 32) | (ip & 0xffffffffL);
+            prefixKey = (2L << 32) | (ip & 0xffffff00L);
+        } else {
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < 8; i++) {
+                high = (high << 8) | (bytes[i] & 0xff);
+                low = (low << 8) | (bytes[8 + i] & 0xff);
+            }
+            ipKey = mix(high) ^ low;
+            prefixKey = high;
+        }
+
+        /* count both before deciding, so a blocked source stays blocked while it keeps trying */
+        double ipCount = perIp.hit(nonZero(ipKey), window, elapsed);
+        double prefixCount = perPrefix.hit(nonZero(prefixKey), window, elapsed);
+
+        int ipLimit = settings.handshakeLimitPerIp;
+        int prefixLimit = settings.handshakeLimitPerPrefix;
+        return (ipLimit == 0 || ipCount <= ipLimit) && (prefixLimit == 0 || prefixCount <= prefixLimit);
+    }
+
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static final class Counters {
+        private final long[] keys;
+        private final long[] windows;
+        private final int[] current;
+        private final int[] previous;
+        private final int mask;
+
+        Counters(int slots) {
+            keys = new long[slots];
+            windows = new long[slots];
+            current = new int[slots];
+            previous = new int[slots];
+            mask = slots - 1;
+        }
+
+        /**
+         * Count one event for key.
+         *
+         * @return estimated events in the last window length, weighting the previous window by how much of it still overlaps
+         */
+        double hit(long key, long window, double elapsed) {
+            int start = (int) mix(key) & mask;
+            int slot = -1;
+            int leastUsed = start;
+
+            for (int i = 0; i < PROBES; i++) {
+                int at = (start + i) & mask;
+                if (keys[at] == key) {
+                    slot = at;
+                    break;
+                }
+                if (slot == -1 && (keys[at] == 0 || windows[at] < window - 1)) {
+                    /* free or stale, keep looking in case the key is further along */
+                    slot = at;
+                }
+                if (current[at] < current[leastUsed]) {
+                    leastUsed = at;
+                }
+            }
+
+            if (slot == -1) {
+                slot = leastUsed;
+            }
+
+            if (keys[slot] != key) {
+                keys[slot] = key;
+                windows[slot] = window;
+                current[slot] = 0;
+                previous[slot] = 0;
+            }
+
+            if (windows[slot] != window) {
+                previous[slot] = windows[slot] == window - 1 ? current[slot] : 0;
+                current[slot] = 0;
+                windows[slot] = window;
+            }
+
+            current[slot]++;
+            return previous[slot] * (1 - elapsed) + current[slot];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "handshake filter: passed " + passed + ", invalid " + invalid + ", rate limited " + rateLimited;
+    }
+}
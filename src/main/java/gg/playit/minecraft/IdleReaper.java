@@ -0,0 +1,134 @@
+package gg.playit.minecraft;
+
+import io.netty.channel.EventLoop;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel that fires timeouts for tunnel connections. There is one
+ * wheel per event loop and every watch is created, touched and expired on that
+ * loop, so nothing here needs locking. The wheel only ticks while it has watches.
+ */
+class IdleReaper {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final ConcurrentHashMap<EventLoop, IdleReaper> reapers = new ConcurrentHashMap<>();
+
+    static IdleReaper of(EventLoop loop) {
+        return reapers.computeIfAbsent(loop, IdleReaper::new);
+    }
+
+    private final EventLoop loop;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Watch>[] wheel = new ArrayDeque[WHEEL_SIZE];
+    private int cursor;
+    private int size;
+    private ScheduledFuture<?> ticker;
+
+    private IdleReaper(EventLoop loop) {
+        this.loop = loop;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Start a timeout, must be called from the reaper's event loop.
+     *
+     * @param phase          name used when logging the timeout
+     * @param timeoutSeconds timeout, 0 or less disables the watch and returns null
+     * @param idle           if true the deadline moves forward every time {@link Watch#touch()} is called
+     * @param onExpire       run on the event loop once the deadline passes
+     */
+    Watch watch(String phase, int timeoutSeconds, boolean idle, Runnable onExpire) {
+        if (timeoutSeconds <= 0) {
+            return null;
+        }
+
+        var watch = new Watch(phase, TimeUnit.SECONDS.toNanos(timeoutSeconds), idle, onExpire);
+        schedule(watch, System.nanoTime());
+        size++;
+
+        if (ticker == null) {
+            ticker = loop.scheduleAtFixedRate(this::tick, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+
+        return watch;
+    }
+
+    private void schedule(Watch watch, long now) {
+        long ticks = Math.max(1, (watch.deadline() - now + TICK_NANOS - 1) / TICK_NANOS);
+        /* deadlines past one revolution get re-checked when the bucket comes around */
+        int offset = (int) Math.min(ticks, WHEEL_SIZE - 1);
+        wheel[(cursor + offset) & WHEEL_MASK].add(watch);
+    }
+
+    private void tick() {
+        cursor = (cursor + 1) & WHEEL_MASK;
+        var bucket = wheel[cursor];
+        var now = System.nanoTime();
+
+        for (int i = bucket.size(); i > 0; i--) {
+            var watch = bucket.poll();
+
+            if (watch.cancelled) {
+                size--;
+            } else if (now - watch.deadline() >= 0) {
+                watch.cancelled = true;
+                size--;
+
+                try {
+                    watch.onExpire.run();
+                } catch (Exception e) {
+                    PlayitTcpTunnel.log.warning("error handling " + watch.phase + " timeout: " + e);
+                }
+            } else {
+                schedule(watch, now);
+            }
+        }
+
+        if (size == 0 && ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    static final class Watch {
+        final String phase;
+        private final long timeoutNanos;
+        private final boolean idle;
+        private final Runnable onExpire;
+        private long start;
+        private boolean cancelled;
+
+        private Watch(String phase, long timeoutNanos, boolean idle, Runnable onExpire) {
+            this.phase = phase;
+            this.timeoutNanos = timeoutNanos;
+            this.idle = idle;
+            this.onExpire = onExpire;
+            this.start = System.nanoTime();
+        }
+
+        private long deadline() {
+            return start + timeoutNanos;
+        }
+
+        /**
+         * Record activity on an idle watch, only a field write so it is cheap to call per read.
+         */
+        void touch() {
+            if (idle) {
+                start = System.nanoTime();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package gg.playit.minecraft;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.bukkit.Server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Answers server list pings at the tunnel edge from a pre-encoded status response, so
+ * scrapers don't each get a full server pipeline and a trip through the status listener.
+ * The response is rebuilt from the Bukkit API on the server thread every few seconds.
+ * <p>
+ * Plugins that change the ping through ServerListPingEvent are bypassed, which is why
+ * this is opt-in.
+ */
+public class JavaStatusCache {
+    static Logger log = Logger.getLogger(JavaStatusCache.class.getName());
+
+    static final String HANDLER_NAME = "playit_status";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    /* clients pick the protocol they send, don't let them grow the cache without bound */
+    private static final int MAX_CACHED_PROTOCOLS = 16;
+    private static final int MAX_ICON_BYTES = 64 * 1024;
+
+    private final Server server;
+    private final PlayitSettings settings;
+    private final File iconFile;
+    private final Method protocolVersionMethod;
+
+    private volatile Snapshot snapshot;
+    private long refreshedAt;
+
+    private long iconModified;
+    private String favicon;
+
+    public volatile long hits;
+    public volatile long refreshes;
+
+    private static final class Snapshot {
+        final Map<String, Object> status;
+        /* response for the server's own protocol, null if the server doesn't expose it */
+        final byte[] encoded;
+        final ConcurrentHashMap<Integer, byte[]> byClientProtocol = new ConcurrentHashMap<>();
+
+        Snapshot(Map<String, Object> status, byte[] encoded) {
+            this.status = status;
+            this.encoded = encoded;
+        }
+    }
+
+    public JavaStatusCache(Server server, PlayitSettings settings) {
+        this.server = server;
+        this.settings = settings;
+        this.iconFile = new File("server-icon.png");
+
+        Method method = null;
+        try {
+            /* paper and forks only, otherwise the client's own protocol is echoed */
+            method = server.getUnsafe().getClass().getMethod("getProtocolVersion");
+        } catch (NoSuchMethodException | RuntimeException ignore) {
+        }
+        this.protocolVersionMethod = method;
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * Rebuild the response if it is older than the configured refresh interval, must run on
+     * the server thread.
+     */
+    public void refreshIfStale() {
+        long now = System.nanoTime();
+        if (snapshot != null && now - refreshedAt < TimeUnit.SECONDS.toNanos(settings.statusCacheRefreshSeconds)) {
+            return;
+        }
+        refreshedAt = now;
+
+        int protocol = serverProtocol();
+
+        var version = new LinkedHashMap<String, Object>();
+        var bukkitVersion = server.getBukkitVersion();
+        int dash = bukkitVersion.indexOf('-');
+        version.put("name", server.getName() + " " + (dash > 0 ? bukkitVersion.substring(0, dash) : bukkitVersion));
+        version.put("protocol", protocol);
+
+        /* no player sample, scrapers don't need the names of who is online */
+        var players = new LinkedHashMap<String, Object>();
+        players.put("max", server.getMaxPlayers());
+        players.put("online", server.getOnlinePlayers().size());
+        players.put("sample", List.of());
+
+        var status = new LinkedHashMap<String, Object>();
+        status.put("version", version);
+        status.put("players", players);
+        status.put("description", Map.of("text", server.getMotd()));
+
+        var icon = favicon();
+        if (icon != null) {
+            status.put("favicon", icon);
+        }
+
+        try {
+            snapshot = new Snapshot(status, protocol < 0 ? null : encode(status));
+            refreshes++;
+        } catch (JsonProcessingException e) {
+            log.warning("failed to encode status response: " + e);
+        }
+    }
+
+    private int serverProtocol() {
+        if (protocolVersionMethod == null) {
+            return -1;
+        }
+        try {
+            return (int) protocolVersionMethod.invoke(server.getUnsafe());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private String favicon() {
+        long modified = iconFile.lastModified();
+        if (modified == iconModified) {
+            return favicon;
+        }
+        iconModified = modified;
+        favicon = null;
+
+        if (modified == 0) {
+            return null;
+        }
+
+        try {
+            var png = Files.readAllBytes(iconFile.toPath());
+            if (png.length > MAX_ICON_BYTES) {
+                log.warning(iconFile + " is too large to send in the server list");
+                return null;
+            }
+            favicon = "data:image/png;base64," + Base64.getEncoder().encodeToString(png);
+        } catch (IOException e) {
+            log.warning("failed to read " + iconFile + ": " + e);
+        }
+        return favicon;
+    }
+
+    private static byte[] encode(Map<String, Object> status) throws JsonProcessingException {
+        var json = mapper.writeValueAsBytes(status);
+
+        var body = Unpooled.buffer(json.length + 6);
+        body.writeByte(0);
+        MinecraftHandshake.writeVarInt(body, json.length);
+        body.writeBytes(json);
+
+        var packet = Unpooled.buffer(body.readableBytes() + 5);
+        MinecraftHandshake.writeVarInt(packet, body.readableBytes());
+        packet.writeBytes(body);
+        body.release();
+
+        var bytes = ByteBufUtil.getBytes(packet);
+        packet.release();
+        return bytes;
+    }
+
+    /**
+     * @return the encoded status response packet, or null if nothing is cached
+     */
+    ByteBuf response(int clientProtocol) {
+        var current = snapshot;
+        if (current == null) {
+            return null;
+        }
+
+        if (current.encoded != null) {
+            return Unpooled.wrappedBuffer(current.encoded);
+        }
+
+        var encoded = current.byClientProtocol.get(clientProtocol);
+        if (encoded == null) {
+            @SuppressWarnings("unchecked")
+            var version = new LinkedHashMap<>((Map<String, Object>) current.status.get("version"));
+            version.put("protocol", clientProtocol);
+            var status = new LinkedHashMap<>(current.status);
+            status.put("version", version);
+
+            try {
+                encoded = encode(status);
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+
+            if (current.byClientProtocol.size() < MAX_CACHED_PROTOCOLS) {
+                current.byClientProtocol.put(clientProtocol, encoded);
+            }
+        }
+        return Unpooled.wrappedBuffer(encoded);
+    }
+
+    /**
+     * Speaks the status protocol after the handshake: status request, then ping, then close.
+     */
+    class Responder extends ByteToMessageDecoder {
+        private final int protocol;
+        private boolean answered;
+
+        Responder(int protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            while (in.isReadable() && ctx.channel().isActive()) {
+                long length = MinecraftHandshake.peekVarInt(in, in.readerIndex(), in.writerIndex());
+                if (length == MinecraftHandshake.VARINT_INCOMPLETE) {
+                    return;
+                }
+
+                int bodyLength = (int) length;
+                int prefix = MinecraftHandshake.varIntSize(length);
+                if (length == MinecraftHandshake.VARINT_INVALID || bodyLength < 1 || bodyLength > 9) {
+                    ctx.close();
+                    return;
+                }
+                if (in.readableBytes() < prefix + bodyLength) {
+                    return;
+                }
+
+                in.skipBytes(prefix);
+                int id = in.readByte();
+
+                if (id == 0 && bodyLength == 1 && !answered) {
+                    var response = response(protocol);
+                    if (response == null) {
+                        ctx.close();
+                        return;
+                    }
+
+                    answered = true;
+                    hits++;
+                    ctx.writeAndFlush(response);
+                } else if (id == 1 && bodyLength == 9) {
+                    /* pong echoes the payload, the client hangs up after it */
+                    var pong = ctx.alloc().buffer(10);
+                    pong.writeByte(9);
+                    pong.writeByte(1);
+                    pong.writeLong(in.readLong());
+                    ctx.writeAndFlush(pong).addListener(ChannelFutureListener.CLOSE);
+                    return;
+                } else {
+                    ctx.close();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        var age = snapshot == null ? "never" : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - refreshedAt) + "ms ago";
+        return "java status cache: refreshed " + age + ", hits " + hits + ", refreshes " + refreshes +
+                (protocolVersionMethod == null ? ", echoing client protocol" : "");
+    }
+}
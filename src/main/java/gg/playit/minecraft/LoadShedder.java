@@ -0,0 +1,159 @@
+package gg.playit.minecraft;
+
+import io.netty.channel.EventLoopGroup;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Decides whether a new tunnel client is claimed now, later or not at all, based on the
+ * server's tick rate. Every claimed player adds a connection the lagging tick loop has to
+ * process, so while the server is behind:
+ * <ul>
+ *     <li>below lag-defer-tps only lag-admit-per-sec clients are claimed each second, the
+ *     rest wait (up to lag-max-defer-ms) for a slot or for the server to recover</li>
+ *     <li>below lag-refuse-tps new clients are refused</li>
+ * </ul>
+ * Addresses of ops and whitelisted players seen joining skip both limits.
+ */
+public class LoadShedder {
+    static Logger log = Logger.getLogger(LoadShedder.class.getName());
+
+    private static final long RETRY_MILLIS = 250;
+    /* waiting clients hold a tracker slot and a timer, don't let a flood queue up */
+    private static final int MAX_DEFERRED = 64;
+    private static final int MAX_PRIORITY_ADDRESSES = 4096;
+
+    enum Decision {
+        ADMIT,
+        DEFER,
+        REFUSE
+    }
+
+    private final PlayitSettings settings;
+    private final TickHealthSampler sampler;
+    private final EventLoopGroup scheduler;
+    private final AtomicInteger deferred = new AtomicInteger();
+
+    private final Map<InetAddress, Boolean> priority = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, Boolean> eldest) {
+            return size() > MAX_PRIORITY_ADDRESSES;
+        }
+    };
+
+    private double tokens;
+    private long tokensAt = System.nanoTime();
+
+    public volatile long admittedPriority;
+    public volatile long admittedDeferred;
+    public volatile long refused;
+
+    LoadShedder(PlayitSettings settings, TickHealthSampler sampler, EventLoopGroup scheduler) {
+        this.settings = settings;
+        this.sampler = sampler;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Remember the address of a trusted player so their next connection skips the limits.
+     */
+    public void recordPriority(InetAddress address) {
+        if (address == null || address.isLoopbackAddress()) {
+            /* relayed players all come from the loopback address */
+            return;
+        }
+
+        synchronized (priority) {
+            priority.put(address, Boolean.TRUE);
+        }
+    }
+
+    private boolean isPriority(InetAddress address) {
+        synchronized (priority) {
+            return priority.containsKey(address);
+        }
+    }
+
+    /**
+     * Run start once the client may be claimed, or refused if it may not. Does not block,
+     * deferred clients are checked again from the event loop.
+     */
+    public void admit(InetAddress peer, Runnable start, Runnable refused) {
+        attempt(peer, start, refused, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.lagMaxDeferMillis), false);
+    }
+
+    private void attempt(InetAddress peer, Runnable start, Runnable refuse, long deadline, boolean waiting) {
+        var decision = decide(peer);
+
+        if (decision == Decision.DEFER && System.nanoTime() < deadline) {
+            if (waiting || deferred.incrementAndGet() <= MAX_DEFERRED) {
+                scheduler.schedule(() -> attempt(peer, start, refuse, deadline, true), RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            /* too many waiting already */
+            deferred.decrementAndGet();
+        }
+
+        if (waiting) {
+            deferred.decrementAndGet();
+        }
+
+        if (decision == Decision.ADMIT) {
+            if (waiting) {
+                admittedDeferred++;
+            }
+            start.run();
+            return;
+        }
+
+        refused++;
+        log.info("server is lagging (" + String.format("%.1f", sampler.tps()) + " tps), refusing new client " + peer.getHostAddress());
+        refuse.run();
+    }
+
+    Decision decide(InetAddress peer) {
+        if (!settings.lagSheddingEnabled) {
+            return Decision.ADMIT;
+        }
+
+        double tps = sampler.tps();
+        if (tps >= settings.lagDeferTps) {
+            return Decision.ADMIT;
+        }
+
+        if (isPriority(peer)) {
+            admittedPriority++;
+            return Decision.ADMIT;
+        }
+
+        if (tps < settings.lagRefuseTps) {
+            return Decision.REFUSE;
+        }
+
+        return takeToken() ? Decision.ADMIT : Decision.DEFER;
+    }
+
+    private synchronized boolean takeToken() {
+        long now = System.nanoTime();
+        int rate = settings.lagAdmitPerSecond;
+        tokens = Math.min(rate, tokens + rate * (double) (now - tokensAt) / TimeUnit.SECONDS.toNanos(1));
+        tokensAt = now;
+
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f tps", sampler.tps()) + ", " + deferred.get() + " clients waiting, admitted after waiting " + admittedDeferred +
+                ", admitted by priority " + admittedPriority + ", refused " + refused;
+    }
+}
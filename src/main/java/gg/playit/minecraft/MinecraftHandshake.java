@@ -0,0 +1,162 @@
+package gg.playit.minecraft;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The first packet a Java edition client sends, read without going through the server's
+ * pipeline so the plugin can decide what to do with a connection before handing it over.
+ * Parsing never consumes the buffer.
+ */
+public final class MinecraftHandshake {
+    public static final int STATE_STATUS = 1;
+    public static final int STATE_LOGIN = 2;
+    public static final int STATE_TRANSFER = 3;
+
+    /* hostname is at most 255 chars, which is 255 * 3 bytes of utf-8 plus the other fields */
+    static final int MAX_LENGTH = 5 + 5 + 3 + 255 * 3 + 2 + 5;
+    /* the protocol's own cap on a 255 char string */
+    private static final int MAX_ADDRESS_BYTES = 255 * 4;
+
+    /**
+     * Returned by {@link #peek(ByteBuf)} when the buffer holds the start of a handshake.
+     */
+    public static final MinecraftHandshake INCOMPLETE = new MinecraftHandshake(0, "", 0, 0, 0);
+
+    public final int protocolVersion;
+    /* as sent by the client, may carry a forge or proxy suffix after a NUL */
+    public final String serverAddress;
+    public final int serverPort;
+    public final int nextState;
+    /* bytes taken by the handshake packet, including its length prefix */
+    public final int length;
+
+    private MinecraftHandshake(int protocolVersion, String serverAddress, int serverPort, int nextState, int length) {
+        this.protocolVersion = protocolVersion;
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.nextState = nextState;
+        this.length = length;
+    }
+
+    /**
+     * @return the handshake at the buffer's reader index, {@link #INCOMPLETE} if more bytes
+     * are needed, or null if the bytes are not a modern handshake (legacy ping, garbage)
+     */
+    public static MinecraftHandshake peek(ByteBuf buf) {
+        int start = buf.readerIndex();
+        int end = buf.writerIndex();
+
+        long packetLength = peekVarInt(buf, start, end);
+        if (packetLength == VARINT_INCOMPLETE) {
+            return INCOMPLETE;
+        }
+        if (packetLength == VARINT_INVALID) {
+            return null;
+        }
+
+        int bodyLength = (int) packetLength;
+        int at = start + varIntSize(packetLength);
+        if (bodyLength < 1 || bodyLength > MAX_LENGTH) {
+            return null;
+        }
+        if (end - at < bodyLength) {
+            return INCOMPLETE;
+        }
+        end = at + bodyLength;
+
+        /* packet id 0, protocol, address, port, next state */
+        if (buf.getByte(at++) != 0) {
+            return null;
+        }
+
+        long protocol = peekVarInt(buf, at, end);
+        if (protocol < 0) {
+            return null;
+        }
+        at += varIntSize(protocol);
+
+        long peekedAddressLength = peekVarInt(buf, at, end);
+        if (peekedAddressLength < 0) {
+            return null;
+        }
+        at += varIntSize(peekedAddressLength);
+        int addressLength = (int) peekedAddressLength;
+        /* long arithmetic, a length near Integer.MAX_VALUE must not wrap past the check */
+        if (addressLength > MAX_ADDRESS_BYTES || (long) addressLength + 2 > end - at) {
+            return null;
+        }
+        var address = buf.toString(at, addressLength, StandardCharsets.UTF_8);
+        at += addressLength;
+
+        int port = buf.getUnsignedShort(at);
+        at += 2;
+
+        long nextState = peekVarInt(buf, at, end);
+        if (nextState < 0) {
+            return null;
+        }
+
+        return new MinecraftHandshake((int) protocol, address, port, (int) nextState, end - start);
+    }
+
+    /**
+     * @return the address without the NUL separated data forge and bungee add, lower case
+     * and without the trailing dot of a fully qualified name
+     */
+    public String hostname() {
+        var host = serverAddress;
+        int nul = host.indexOf('\0');
+        if (nul >= 0) {
+            host = host.substring(0, nul);
+        }
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host.toLowerCase();
+    }
+
+    static final long VARINT_INCOMPLETE = -1;
+    static final long VARINT_INVALID = -2;
+
+    /**
+     * @return the value in the low 32 bits and its encoded size in the high bits, or
+     * {@link #VARINT_INCOMPLETE} / {@link #VARINT_INVALID}
+     */
+    static long peekVarInt(ByteBuf buf, int index, int end) {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            if (index + i >= end) {
+                return VARINT_INCOMPLETE;
+            }
+
+            byte b = buf.getByte(index + i);
+            value |= (b & 0x7f) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    return VARINT_INVALID;
+                }
+                return ((long) (i + 1) << 32) | value;
+            }
+        }
+        return VARINT_INVALID;
+    }
+
+    static int varIntSize(long peeked) {
+        return (int) (peeked >>> 32);
+    }
+
+    static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    @Override
+    public String toString() {
+        return "handshake{protocol " + protocolVersion + ", address " + hostname() + ":" + serverPort + ", next state " + nextState + "}";
+    }
+}
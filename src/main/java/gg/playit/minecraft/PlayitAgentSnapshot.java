@@ -0,0 +1,95 @@
+package gg.playit.minecraft;
+
+import gg.playit.api.models.Notice;
+import gg.playit.minecraft.utils.Hex;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+/**
+ * Last known agent / tunnel state, persisted so the control channel can come up
+ * right after enable or /reload while the API is re-checked in the background.
+ * Only the secret's SHA-256 is stored, to tie the snapshot to the configured secret.
+ */
+public class PlayitAgentSnapshot {
+    static Logger log = Logger.getLogger(PlayitAgentSnapshot.class.getName());
+
+    private static final int VERSION = 1;
+
+    /**
+     * @return keys from the snapshot, or null if there is no usable snapshot for this secret
+     */
+    public static PlayitKeysSetup.PlayitKeys load(File file, String secretKey) {
+        if (secretKey == null || !file.isFile()) {
+            return null;
+        }
+
+        var yaml = YamlConfiguration.loadConfiguration(file);
+        if (yaml.getInt("version") != VERSION || !fingerprint(secretKey).equals(yaml.getString("secret-sha256"))) {
+            return null;
+        }
+
+        var keys = new PlayitKeysSetup.PlayitKeys();
+        keys.secretKey = secretKey;
+        keys.agentId = yaml.getString("agent-id");
+        keys.tunnelAddress = yaml.getString("tunnel-address");
+        keys.bedrockTunnelAddress = yaml.getString("bedrock-tunnel-address");
+        keys.isGuest = yaml.getBoolean("guest");
+        keys.isEmailVerified = yaml.getBoolean("email-verified", true);
+
+        if (yaml.isConfigurationSection("notice")) {
+            keys.notice = new Notice();
+            keys.notice.message = yaml.getString("notice.message");
+            keys.notice.url = yaml.getString("notice.url");
+        }
+
+        if (keys.agentId == null || keys.tunnelAddress == null) {
+            return null;
+        }
+
+        return keys;
+    }
+
+    public static void save(File file, PlayitKeysSetup.PlayitKeys keys) {
+        var yaml = new YamlConfiguration();
+        yaml.set("version", VERSION);
+        yaml.set("saved-at", System.currentTimeMillis());
+        yaml.set("secret-sha256", fingerprint(keys.secretKey));
+        yaml.set("agent-id", keys.agentId);
+        yaml.set("tunnel-address", keys.tunnelAddress);
+        yaml.set("bedrock-tunnel-address", keys.bedrockTunnelAddress);
+        yaml.set("guest", keys.isGuest);
+        yaml.set("email-verified", keys.isEmailVerified);
+
+        if (keys.notice != null) {
+            yaml.set("notice.message", keys.notice.message);
+            yaml.set("notice.url", keys.notice.url);
+        }
+
+        try {
+            yaml.save(file);
+        } catch (IOException e) {
+            log.warning("failed to save agent snapshot: " + e);
+        }
+    }
+
+    public static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warning("failed to delete agent snapshot " + file);
+        }
+    }
+
+    private static String fingerprint(String secretKey) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return Hex.encodeHexString(digest.digest(secretKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import gg.playit.api.ApiError;
 import gg.playit.api.models.Notice;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Server;
@@ -18,34 +19,83 @@ import org.bukkit.plugin.Plugin;
 import org.yaml.snakeyaml.Yaml;
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 public final class PlayitBukkit extends JavaPlugin implements Listener {
     public static final String CFG_AGENT_SECRET_KEY = "agent-secret";
     public static final String CFG_CONNECTION_TIMEOUT_SECONDS = "mc-timeout-sec";
+    public static final String CFG_CLAIM_TIMEOUT_SECONDS = "claim-timeout-sec";
+    public static final String CFG_HANDSHAKE_TIMEOUT_SECONDS = "handshake-timeout-sec";
+    public static final String CFG_RELAY_IDLE_TIMEOUT_SECONDS = "relay-idle-timeout-sec";
+    public static final String CFG_DRAIN_TIMEOUT_SECONDS = "drain-timeout-sec";
+    public static final String CFG_TRAFFIC_GLOBAL_READ_LIMIT = "traffic-global-read-limit";
+    public static final String CFG_TRAFFIC_GLOBAL_WRITE_LIMIT = "traffic-global-write-limit";
+    public static final String CFG_TRAFFIC_CHANNEL_READ_LIMIT = "traffic-channel-read-limit";
+    public static final String CFG_TRAFFIC_CHANNEL_WRITE_LIMIT = "traffic-channel-write-limit";
+    public static final String CFG_SOCKET_PROFILE = "socket-profile";
+    public static final String CFG_FALLBACK_BACKEND = "fallback-backend";
+    public static final String CFG_STATUS_CACHE = "status-cache";
+    public static final String CFG_ROUTES = "routes";
+    public static final String CFG_HANDSHAKE_FILTER = "handshake-filter";
+    public static final String CFG_HANDSHAKE_LIMIT_PER_IP = "handshake-limit-per-ip";
+    public static final String CFG_HANDSHAKE_LIMIT_PER_PREFIX = "handshake-limit-per-prefix";
+    public static final String CFG_HANDSHAKE_LIMIT_WINDOW_SECONDS = "handshake-limit-window-sec";
+    public static final String CFG_LAG_SHEDDING = "lag-shedding";
+    public static final String CFG_CONTROL_STANDBY = "control-standby";
+    public static final String CFG_LAG_DEFER_TPS = "lag-defer-tps";
+    public static final String CFG_LAG_REFUSE_TPS = "lag-refuse-tps";
+    public static final String CFG_LAG_ADMIT_PER_SECOND = "lag-admit-per-sec";
+    public static final String CFG_LAG_MAX_DEFER_MILLIS = "lag-max-defer-ms";
+    public static final String CFG_STATUS_CACHE_REFRESH_SECONDS = "status-cache-refresh-sec";
     public static final String CFG_AUTO_CREATE_BEDROCK_TUNNEL = "auto_create_bedrock_tunnel";
     public static final String CFG_PROMPT_ADMIN_FOR_BEDROCK = "prompt_admin_for_bedrock";
     public static final String CFG_JAVA_LOCAL_PORT = "java_local_port";
     public static final String CFG_BEDROCK_LOCAL_PORT = "bedrock_local_port";
+    public static final String CFG_LOG_LEVEL = "log-level";
+    public static final String CFG_AGENTS = "agents";
 
     static Logger log = Logger.getLogger(PlayitBukkit.class.getName());
     final EventLoopGroup eventGroup = new NioEventLoopGroup();
+    /* shared by every tunnel connection so global limits use one traffic counter */
+    final GlobalChannelTrafficShapingHandler trafficShaper = new GlobalChannelTrafficShapingHandler(eventGroup, 1000);
+    final SocketAutoTuner socketTuner = new SocketAutoTuner();
+    final ConnectionTraceBuffer traces = new ConnectionTraceBuffer(512);
+    volatile PlayitConnectionJournal journal;
+    /* all blocking plugin work runs here instead of on ad hoc threads */
+    final PlayitExecutor executor = new PlayitExecutor("playit", 16);
+    final PlayitSettings settings = new PlayitSettings();
+    final HandshakeFilter handshakeFilter = new HandshakeFilter(settings);
+    final TickHealthSampler tickSampler = new TickHealthSampler();
+    final LoadShedder loadShedder = new LoadShedder(settings, tickSampler, eventGroup);
 
     private final Object managerSync = new Object();
     private volatile PlayitManager playitManager;
+    /* additional agents from the agents section, by name, guarded by managerSync */
+    private final Map<String, PlayitManager> extraAgents = new LinkedHashMap<>();
 
     Server server;
 
     private boolean isGeyserPresent = false;
     private int geyserPort = 19132;
-    private int javaLocalPort = 25565;
-    private int bedrockLocalPort = 19132;
-    private boolean autoCreateBedrockTunnel = false;
-    private boolean promptAdminForBedrock = true;
+    /* answers java server list pings at the tunnel edge when status-cache is on */
+    JavaStatusCache statusCache;
+    /* allow/deny ranges from ip-rules.txt checked before a client is claimed, null without the file */
+    volatile CidrTrie ipRules;
+
+    /* how often config.yml is checked for changes */
+    private static final long CONFIG_WATCH_TICKS = 20 * 5;
+    /* how often route backends are probed */
+    private static final long ROUTE_HEALTH_CHECK_TICKS = 20 * 10;
+    static final String IP_RULES_FILE = "ip-rules.txt";
 
     @Override
     public void onEnable() {
@@ -84,6 +134,13 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
             log.info("Geyser detected, Bedrock port: " + geyserPort);
         }
 
+        try {
+            getDataFolder().mkdirs();
+            journal = new PlayitConnectionJournal(new File(getDataFolder(), "connections.journal"), 16384);
+        } catch (IOException e) {
+            log.warning("failed to open connection journal, connection history will not be recorded: " + e);
+        }
+
         var command = getCommand("playit");
         if (command != null) {
             command.setExecutor(this);
@@ -97,26 +154,74 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         getConfig().addDefault(CFG_PROMPT_ADMIN_FOR_BEDROCK, true);
         getConfig().addDefault(CFG_JAVA_LOCAL_PORT, 25565);
         getConfig().addDefault(CFG_BEDROCK_LOCAL_PORT, 19132);
+        getConfig().addDefault(CFG_CLAIM_TIMEOUT_SECONDS, 10);
+        getConfig().addDefault(CFG_HANDSHAKE_TIMEOUT_SECONDS, 15);
+        getConfig().addDefault(CFG_RELAY_IDLE_TIMEOUT_SECONDS, 60);
+        getConfig().addDefault(CFG_DRAIN_TIMEOUT_SECONDS, 30);
+        getConfig().addDefault(CFG_TRAFFIC_GLOBAL_READ_LIMIT, 0);
+        getConfig().addDefault(CFG_TRAFFIC_GLOBAL_WRITE_LIMIT, 0);
+        getConfig().addDefault(CFG_TRAFFIC_CHANNEL_READ_LIMIT, 0);
+        getConfig().addDefault(CFG_TRAFFIC_CHANNEL_WRITE_LIMIT, 0);
+        getConfig().addDefault(CFG_SOCKET_PROFILE, SocketProfile.LATENCY.configName);
+        getConfig().addDefault(CFG_FALLBACK_BACKEND, "tcp");
+        getConfig().addDefault(CFG_STATUS_CACHE, false);
+        getConfig().addDefault(CFG_STATUS_CACHE_REFRESH_SECONDS, 5);
+        getConfig().addDefault(CFG_HANDSHAKE_FILTER, false);
+        getConfig().addDefault(CFG_HANDSHAKE_LIMIT_PER_IP, 10);
+        getConfig().addDefault(CFG_HANDSHAKE_LIMIT_PER_PREFIX, 40);
+        getConfig().addDefault(CFG_HANDSHAKE_LIMIT_WINDOW_SECONDS, 10);
+        getConfig().addDefault(CFG_LAG_SHEDDING, false);
+        getConfig().addDefault(CFG_CONTROL_STANDBY, false);
+        getConfig().addDefault(CFG_LAG_DEFER_TPS, 17.0);
+        getConfig().addDefault(CFG_LAG_REFUSE_TPS, 10.0);
+        getConfig().addDefault(CFG_LAG_ADMIT_PER_SECOND, 2);
+        getConfig().addDefault(CFG_LAG_MAX_DEFER_MILLIS, 3000);
+        getConfig().addDefault(CFG_LOG_LEVEL, "INFO");
         saveDefaultConfig();
 
-        // Read config values
-        autoCreateBedrockTunnel = getConfig().getBoolean(CFG_AUTO_CREATE_BEDROCK_TUNNEL, false);
-        promptAdminForBedrock = getConfig().getBoolean(CFG_PROMPT_ADMIN_FOR_BEDROCK, true);
-        javaLocalPort = getConfig().getInt(CFG_JAVA_LOCAL_PORT, 25565);
-        bedrockLocalPort = getConfig().getInt(CFG_BEDROCK_LOCAL_PORT, 19132);
+        applySettings();
 
-        // If Geyser is present and config doesn't override, use Geyser's detected port
-        if (isGeyserPresent && bedrockLocalPort == 19132) {
-            bedrockLocalPort = geyserPort;
-        }
+        log.info("Configuration loaded - auto_create_bedrock_tunnel: " + settings.autoCreateBedrockTunnel +
+                 ", prompt_admin_for_bedrock: " + settings.promptAdminForBedrock +
+                 ", java_local_port: " + settings.javaLocalPort +
+                 ", bedrock_local_port: " + settings.bedrockLocalPort);
+
+        Bukkit.getScheduler().runTaskTimer(this, tickSampler, 1, 1);
 
-        log.info("Configuration loaded - auto_create_bedrock_tunnel: " + autoCreateBedrockTunnel + 
-                 ", prompt_admin_for_bedrock: " + promptAdminForBedrock +
-                 ", java_local_port: " + javaLocalPort + 
-                 ", bedrock_local_port: " + bedrockLocalPort);
+        statusCache = new JavaStatusCache(server, settings);
+        /* checked every second, rebuilt when older than status-cache-refresh-sec */
+        Bukkit.getScheduler().runTaskTimer(this, () -> {
+            if (settings.statusCacheEnabled) {
+                statusCache.refreshIfStale();
+            }
+        }, 20, 20);
+
+        Bukkit.getScheduler().runTaskTimer(this, () -> {
+            var routes = settings.routes;
+            if (routes != null) {
+                routes.checkHealth(eventGroup, settings.socketProfile);
+            }
+        }, ROUTE_HEALTH_CHECK_TICKS, ROUTE_HEALTH_CHECK_TICKS);
+
+        var watcher = new PlayitConfigWatcher(new File(getDataFolder(), "config.yml"), this::reloadSettings);
+        Bukkit.getScheduler().runTaskTimer(this, watcher, CONFIG_WATCH_TICKS, CONFIG_WATCH_TICKS);
+
+        var ipRulesFile = new File(getDataFolder(), IP_RULES_FILE);
+        if (ipRulesFile.exists()) {
+            loadIpRules(ipRulesFile);
+        }
+        var ipRulesWatcher = new PlayitConfigWatcher(ipRulesFile, () -> executor.submit("ip-rules", () -> loadIpRules(ipRulesFile)), () -> {
+            /* no file means every address is allowed */
+            if (ipRules != null) {
+                ipRules = null;
+                log.info(IP_RULES_FILE + " removed, ip rules cleared");
+            }
+        });
+        Bukkit.getScheduler().runTaskTimer(this, ipRulesWatcher, CONFIG_WATCH_TICKS, CONFIG_WATCH_TICKS);
 
         var secretKey = getConfig().getString("agent-secret");
         resetConnection(secretKey);
+        reconcileAgents();
 
         try {
             pm.registerEvents(this, this);
@@ -129,6 +234,11 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         var player = event.getPlayer();
         var manager = playitManager;
 
+        if (player.isOp() || player.isWhitelisted()) {
+            var address = player.getAddress();
+            loadShedder.recordPriority(address == null ? null : address.getAddress());
+        }
+
         if (player.isOp()) {
             if (manager.isGuest()) {
                 player.sendMessage(ChatColor.RED + "WARNING:" + ChatColor.RESET + " playit.gg is running with a guest account");
@@ -167,31 +277,33 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                         sender.sendMessage("playit status: offline (or shutting down)");
                     }
                 } else {
-                    String message = switch (manager.state()) {
-                        case PlayitKeysSetup.STATE_INIT -> "preparing secret";
-                        case PlayitKeysSetup.STATE_MISSING_SECRET -> "waiting for claim";
-                        case PlayitKeysSetup.STATE_CHECKING_SECRET -> "checking secret";
-                        case PlayitKeysSetup.STATE_CREATING_TUNNEL -> "preparing tunnel";
-                        case PlayitKeysSetup.STATE_ERROR -> "error setting up key / tunnel";
-
-                        case PlayitManager.STATE_CONNECTING -> "connecting";
-                        case PlayitManager.STATE_ONLINE -> "connected";
-                        case PlayitManager.STATE_OFFLINE -> "offline";
-                        case PlayitManager.STATE_ERROR_WAITING -> "got error, retrying";
-                        case PlayitManager.STATE_INVALID_AUTH -> "invalid secret key";
-
-                        case PlayitManager.STATE_SHUTDOWN -> "shutdown";
-                        default -> "unknown";
-                    };
-
-                    sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "playit status:" + ChatColor.RESET + " " + message);
+                    sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "playit status:" + ChatColor.RESET + " " + describeState(manager.state()));
+
+                    var control = manager.describeControl();
+                    if (control != null) {
+                        sender.sendMessage("control: " + control);
+                    }
                 }
 
                 return true;
             }
 
+            if (args.length > 1 && args[1].equals("list")) {
+                var manager = playitManager;
+                sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "agents:");
+                sender.sendMessage("  (this server): " + (manager == null ? "offline" : describeState(manager.state()) + ", " + manager.getAddress()));
+
+                synchronized (managerSync) {
+                    for (var agent : extraAgents.values()) {
+                        sender.sendMessage("  " + agent.name + " -> " + agent.backendDescription() + ": " + describeState(agent.state()) + ", " + agent.getAddress());
+                    }
+                }
+                return true;
+            }
+
             if (args.length > 1 && args[1].equals("restart")) {
                 resetConnection(null);
+                restartAgents();
                 broadcast("restarting connection as requested by: " + sender.getName());
                 return true;
             }
@@ -205,7 +317,7 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
             if (args.length > 1 && args[1].equals("shutdown")) {
                 synchronized (managerSync) {
                     if (playitManager != null) {
-                        playitManager.shutdown();
+                        playitManager.drain(settings.drainTimeoutSeconds);
                         playitManager = null;
                     }
                 }
@@ -230,11 +342,7 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         if (args.length > 0 && args[0].equals("prop")) {
             if (args.length > 1 && args[1].equals("get")) {
                 {
-                    int current = 30;
-                    var p = playitManager;
-                    if (p != null) {
-                        current = playitManager.connectionTimeoutSeconds;
-                    }
+                    int current = settings.connectionTimeoutSeconds;
 
                     int settings = 30;
                     try {
@@ -245,6 +353,11 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                     sender.sendMessage("prop: " + CFG_CONNECTION_TIMEOUT_SECONDS + ", current: " + current + ", setting: " + settings);
                 }
 
+                sender.sendMessage("prop: " + CFG_TRAFFIC_GLOBAL_READ_LIMIT + ", current: " + trafficShaper.getReadLimit());
+                sender.sendMessage("prop: " + CFG_TRAFFIC_GLOBAL_WRITE_LIMIT + ", current: " + trafficShaper.getWriteLimit());
+                sender.sendMessage("prop: " + CFG_TRAFFIC_CHANNEL_READ_LIMIT + ", current: " + trafficShaper.getReadChannelLimit());
+                sender.sendMessage("prop: " + CFG_TRAFFIC_CHANNEL_WRITE_LIMIT + ", current: " + trafficShaper.getWriteChannelLimit());
+
                 return true;
             }
 
@@ -254,14 +367,34 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                         var value = Integer.parseInt(args[3]);
                         getConfig().set(CFG_CONNECTION_TIMEOUT_SECONDS, value);
                         saveConfig();
+                        applySettings();
 
-                        sender.sendMessage("configuration set, run \"/playit agent restart\" to apply");
+                        sender.sendMessage("configuration set and applied to new connections");
                     } catch (Exception ignore) {
                         sender.sendMessage("invalid integer");
                     }
 
                     return true;
                 }
+
+                if (TRAFFIC_PROPS.contains(args[2])) {
+                    try {
+                        var value = Long.parseLong(args[3]);
+                        if (value < 0) {
+                            throw new NumberFormatException();
+                        }
+
+                        getConfig().set(args[2], value);
+                        saveConfig();
+                        applySettings();
+
+                        sender.sendMessage("configuration set and applied, " + args[2] + " is now " + (value == 0 ? "unlimited" : value + " bytes/sec"));
+                    } catch (Exception ignore) {
+                        sender.sendMessage("invalid limit, expected bytes per second (0 for unlimited)");
+                    }
+
+                    return true;
+                }
             }
 
             return false;
@@ -281,6 +414,38 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                 sender.sendMessage("playit.gg is still setting up");
                 return true;
             }
+
+            if (args.length > 1 && args[1].equals("list")) {
+                var m = playitManager;
+                var inventory = m == null ? null : m.getTunnelInventory();
+                var view = inventory == null ? null : inventory.view();
+                if (view == null) {
+                    sender.sendMessage("tunnel list not loaded yet");
+                    return true;
+                }
+
+                sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "tunnels:");
+                for (var tunnel : view.all()) {
+                    sender.sendMessage((tunnel.enabled ? "" : ChatColor.GRAY + "[disabled] " + ChatColor.RESET) +
+                            tunnel.tunnelType + "/" + tunnel.portType + " " + ChatColor.AQUA + tunnel.displayAddress + ChatColor.RESET +
+                            (tunnel.localPort == 0 ? "" : " -> " + tunnel.localIp + ":" + tunnel.localPort));
+                }
+                return true;
+            }
+
+            if (args.length > 1 && args[1].equals("routes")) {
+                var routes = settings.routes;
+                if (routes == null) {
+                    sender.sendMessage("no routes configured, every player goes to the agent's server");
+                    return true;
+                }
+
+                sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "routes:");
+                for (var route : routes.routes()) {
+                    sender.sendMessage(route.toString());
+                }
+                return true;
+            }
         }
 
         if (args.length > 0 && args[0].equals("account")) {
@@ -293,7 +458,7 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
 
                 sender.sendMessage("preparing login link");
 
-                new Thread(() -> {
+                submit(sender, "guest-login-link", () -> {
                     try {
                         var api = new ApiClient(secret);
                         var session = api.createGuestWebSessionKey();
@@ -309,12 +474,74 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                     } catch (IOException e) {
                         log.severe("failed to create guest secret: " + e);
                     }
-                }).start();
+                });
+
+                return true;
+            }
+        }
+
+        if (args.length > 0 && args[0].equals("trace")) {
+            if (args.length > 1 && args[1].equals("slowest")) {
+                int count = 5;
+                if (args.length > 2) {
+                    try {
+                        count = Math.max(1, Integer.parseInt(args[2]));
+                    } catch (NumberFormatException ignore) {
+                        sender.sendMessage("invalid count");
+                        return true;
+                    }
+                }
+
+                var slowest = traces.slowest(count);
+                if (slowest.isEmpty()) {
+                    sender.sendMessage("no connection traces recorded yet");
+                    return true;
+                }
+
+                sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "slowest connections:");
+                for (var trace : slowest) {
+                    sender.sendMessage(trace.toString());
+                }
+                return true;
+            }
+        }
+
+        if (args.length > 0 && args[0].equals("journal")) {
+            if (args.length > 1 && args[1].equals("recent")) {
+                var j = journal;
+                if (j == null) {
+                    sender.sendMessage("connection journal is not available");
+                    return true;
+                }
+
+                int count = 10;
+                if (args.length > 2) {
+                    try {
+                        count = Math.max(1, Integer.parseInt(args[2]));
+                    } catch (NumberFormatException ignore) {
+                        sender.sendMessage("invalid count");
+                        return true;
+                    }
+                }
+
+                var records = j.recent(count);
+                if (records.isEmpty()) {
+                    sender.sendMessage("no connections recorded yet");
+                    return true;
+                }
 
+                sender.sendMessage(ChatColor.BLUE + "" + ChatColor.UNDERLINE + "recent connections:");
+                for (var record : records) {
+                    sender.sendMessage(record.toString());
+                }
                 return true;
             }
         }
 
+        if (args.length > 0 && args[0].equals("debug")) {
+            return handleDebugCommand(sender, args);
+        }
+
         // Handle /playit createtunnels command
         if (args.length > 0 && args[0].equals("createtunnels")) {
             return handleCreateTunnelsCommand(sender);
@@ -323,6 +550,125 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         return false;
     }
 
+    /**
+     * Handle the /playit debug command, control feed capture and replay.
+     */
+    private boolean handleDebugCommand(CommandSender sender, String[] args) {
+        if (args.length > 1 && args[1].equals("status-cache")) {
+            sender.sendMessage((settings.statusCacheEnabled ? "enabled, " : "disabled, ") + statusCache);
+            return true;
+        }
+
+        if (args.length > 1 && args[1].equals("handshake-filter")) {
+            sender.sendMessage((settings.handshakeFilterEnabled ? "enabled, " : "disabled, ") + handshakeFilter);
+            return true;
+        }
+
+        if (args.length > 1 && args[1].equals("ip-rules")) {
+            var rules = ipRules;
+            if (rules == null) {
+                sender.sendMessage("no " + IP_RULES_FILE + " in the plugin folder, every address is allowed");
+                return true;
+            }
+
+            sender.sendMessage(rules.toString());
+            for (var line : rules.topRules(10)) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        if (args.length > 1 && args[1].equals("lag")) {
+            sender.sendMessage((settings.lagSheddingEnabled ? "lag shedding enabled, " : "lag shedding disabled, ") + loadShedder);
+            return true;
+        }
+
+        if (args.length > 1 && args[1].equals("tasks")) {
+            sender.sendMessage(executor.toString());
+            for (var task : executor.runningTasks()) {
+                sender.sendMessage("  running: " + task);
+            }
+            return true;
+        }
+
+        var manager = playitManager;
+        if (manager == null) {
+            sender.sendMessage("playit is not running");
+            return true;
+        }
+
+        if (args.length > 2 && args[1].equals("capture")) {
+            try {
+                if (args[2].equals("start")) {
+                    var dir = new File(getDataFolder(), "captures");
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        sender.sendMessage("failed to create " + dir);
+                        return true;
+                    }
+
+                    var file = new File(dir, "control-" + System.currentTimeMillis() + ".bin");
+                    manager.startCapture(file);
+                    sender.sendMessage("capturing control feed to " + file.getPath());
+                    return true;
+                }
+
+                if (args[2].equals("stop")) {
+                    var capture = manager.stopCapture();
+                    if (capture == null) {
+                        sender.sendMessage("no capture running");
+                    } else {
+                        sender.sendMessage("captured " + capture.count() + " datagrams to " + capture.file.getPath());
+                    }
+                    return true;
+                }
+            } catch (IOException e) {
+                log.warning("control capture failed: " + e);
+                sender.sendMessage("error: " + e.getMessage());
+                return true;
+            }
+        }
+
+        if (args.length > 2 && args[1].equals("replay")) {
+            var file = new File(args[2]);
+            if (!file.isFile()) {
+                file = new File(new File(getDataFolder(), "captures"), args[2]);
+            }
+            if (!file.isFile()) {
+                sender.sendMessage("capture not found: " + args[2]);
+                return true;
+            }
+
+            double speed = 1;
+            if (args.length > 3) {
+                try {
+                    speed = Double.parseDouble(args[3]);
+                } catch (NumberFormatException ignore) {
+                    sender.sendMessage("invalid speed, use 1 for original timing or 0 for no delay");
+                    return true;
+                }
+            }
+
+            var capture = file;
+            var replaySpeed = speed;
+            sender.sendMessage("replaying " + capture.getPath() + " at speed " + replaySpeed);
+
+            submit(sender, "control-replay", () -> {
+                try {
+                    var result = manager.replay(capture, replaySpeed);
+                    log.info("control feed replay finished: " + result);
+                    sender.sendMessage("replay finished: " + result);
+                } catch (IOException e) {
+                    log.warning("control feed replay failed: " + e);
+                    sender.sendMessage("replay failed: " + e.getMessage());
+                }
+            });
+
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * Handle the /playit createtunnels command.
      */
@@ -330,6 +676,9 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         var manager = playitManager;
         String secretKey = getConfig().getString(CFG_AGENT_SECRET_KEY);
         String agentId = manager != null ? manager.getAgentId() : null;
+        PlayitTunnelInventory inventory = manager != null ? manager.getTunnelInventory() : null;
+        int javaLocalPort = settings.javaLocalPort;
+        int bedrockLocalPort = settings.bedrockLocalPort;
 
         if (secretKey == null || secretKey.length() < 32) {
             sender.sendMessage(ChatColor.RED + "[playit.gg] Error: Agent not configured. Please complete the initial setup first.");
@@ -346,9 +695,9 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         sender.sendMessage("  Geyser detected: " + (isGeyserPresent ? ChatColor.GREEN + "Yes" : ChatColor.GRAY + "No"));
 
         // Run async to avoid blocking the main thread
-        new Thread(() -> {
+        submit(sender, "create-tunnels", () -> {
             try {
-                PlayitTunnelHelper helper = new PlayitTunnelHelper(secretKey, agentId, javaLocalPort, bedrockLocalPort);
+                PlayitTunnelHelper helper = new PlayitTunnelHelper(secretKey, agentId, javaLocalPort, bedrockLocalPort, inventory);
                 PlayitTunnelHelper.TunnelStatus status = helper.createJavaAndBedrockTunnelsIfMissing(isGeyserPresent);
 
                 // Send results back to sender (on main thread for safety)
@@ -359,7 +708,7 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                     sender.sendMessage(ChatColor.RED + "[playit.gg] Error creating tunnels: " + e.getMessage())
                 );
             }
-        }).start();
+        });
 
         return true;
     }
@@ -406,6 +755,72 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         }
     }
 
+    /**
+     * Run a command's blocking work on the executor, telling the sender if it is saturated.
+     */
+    private void submit(CommandSender sender, String taskName, Runnable task) {
+        try {
+            executor.submit(taskName, task);
+        } catch (RejectedExecutionException e) {
+            log.warning("rejected " + taskName + ", too many tasks queued: " + executor);
+            sender.sendMessage("playit.gg is busy, try again shortly");
+        }
+    }
+
+    private static final List<String> TRAFFIC_PROPS = List.of(
+            CFG_TRAFFIC_GLOBAL_READ_LIMIT,
+            CFG_TRAFFIC_GLOBAL_WRITE_LIMIT,
+            CFG_TRAFFIC_CHANNEL_READ_LIMIT,
+            CFG_TRAFFIC_CHANNEL_WRITE_LIMIT
+    );
+
+    /**
+     * Validate the loaded config and push it into the live settings and the shared shaper.
+     * Timeouts and socket options are read by each connection as it goes, bandwidth limits
+     * take effect immediately for open connections.
+     */
+    private void applySettings() {
+        for (var problem : settings.apply(getConfig(), isGeyserPresent ? geyserPort : 0)) {
+            log.warning("config.yml: " + problem);
+        }
+
+        trafficShaper.configureGlobal(settings.trafficGlobalWriteLimit, settings.trafficGlobalReadLimit);
+        trafficShaper.configureChannel(settings.trafficChannelWriteLimit, settings.trafficChannelReadLimit);
+    }
+
+    /**
+     * config.yml changed on disk, reload it without touching the running manager.
+     */
+    private void reloadSettings() {
+        var secretBefore = getConfig().getString(CFG_AGENT_SECRET_KEY, "");
+        reloadConfig();
+        applySettings();
+        reconcileAgents();
+        log.info("config.yml changed, settings reloaded");
+
+        if (!secretBefore.equals(getConfig().getString(CFG_AGENT_SECRET_KEY, ""))) {
+            log.info(CFG_AGENT_SECRET_KEY + " changed in config.yml, run \"/playit agent restart\" to connect with it");
+        }
+    }
+
+    /**
+     * Compile the ip rules file and swap it in, the previous rules stay if it can't be read.
+     */
+    private void loadIpRules(File file) {
+        var problems = new ArrayList<String>();
+        try {
+            var rules = CidrTrie.load(file.toPath(), problems);
+            ipRules = rules;
+            log.info("loaded " + rules);
+        } catch (IOException e) {
+            log.warning("failed to read " + file + ", keeping the previous ip rules: " + e);
+        }
+
+        for (var problem : problems) {
+            log.warning(problem);
+        }
+    }
+
     private void resetConnection(String secretKey) {
         if (secretKey != null) {
             getConfig().set(CFG_AGENT_SECRET_KEY, secretKey);
@@ -413,21 +828,144 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         }
 
         synchronized (managerSync) {
-            if (playitManager != null) {
-                playitManager.shutdown();
+            var previous = playitManager;
+
+            playitManager = new PlayitManager(this, isGeyserPresent, settings.javaLocalPort, settings.bedrockLocalPort,
+                    settings.autoCreateBedrockTunnel, settings.promptAdminForBedrock);
+
+            if (previous != null) {
+                handOver(previous, playitManager);
             }
 
-            playitManager = new PlayitManager(this, isGeyserPresent, javaLocalPort, bedrockLocalPort, autoCreateBedrockTunnel, promptAdminForBedrock);
-            try {
-                int waitSeconds = getConfig().getInt(CFG_CONNECTION_TIMEOUT_SECONDS);
-                if (waitSeconds != 0) {
-                    playitManager.connectionTimeoutSeconds = waitSeconds;
+            executor.submitLoop("manager", playitManager);
+        }
+    }
+
+    static String describeState(int state) {
+        return switch (state) {
+            case PlayitKeysSetup.STATE_INIT -> "preparing secret";
+            case PlayitKeysSetup.STATE_MISSING_SECRET -> "waiting for claim";
+            case PlayitKeysSetup.STATE_CHECKING_SECRET -> "checking secret";
+            case PlayitKeysSetup.STATE_CREATING_TUNNEL -> "preparing tunnel";
+            case PlayitKeysSetup.STATE_ERROR -> "error setting up key / tunnel";
+
+            case PlayitManager.STATE_CONNECTING -> "connecting";
+            case PlayitManager.STATE_ONLINE -> "connected";
+            case PlayitManager.STATE_OFFLINE -> "offline";
+            case PlayitManager.STATE_ERROR_WAITING -> "got error, retrying";
+            case PlayitManager.STATE_INVALID_AUTH -> "invalid secret key";
+            case PlayitManager.STATE_DRAINING -> "draining connections";
+
+            case PlayitManager.STATE_SHUTDOWN -> "shutdown";
+            default -> "unknown";
+        };
+    }
+
+    /**
+     * Start agents added to the agents section and drain ones that were removed. Changing an
+     * existing agent's secret or backend takes effect on "/playit agent restart".
+     */
+    private void reconcileAgents() {
+        var section = getConfig().getConfigurationSection(CFG_AGENTS);
+        var configured = section == null ? Set.<String>of() : section.getKeys(false);
+
+        synchronized (managerSync) {
+            for (var name : configured) {
+                if (extraAgents.containsKey(name)) {
+                    continue;
+                }
+
+                var agent = createAgent(name);
+                if (agent != null) {
+                    log.info("starting agent " + name + " for " + agent.backendDescription());
+                    extraAgents.put(name, agent);
+                    executor.submitLoop("manager-" + name, agent);
+                }
+            }
+
+            var removed = extraAgents.keySet().iterator();
+            while (removed.hasNext()) {
+                var name = removed.next();
+                if (!configured.contains(name)) {
+                    log.info("agent " + name + " removed from config, draining");
+                    extraAgents.get(name).drain(settings.drainTimeoutSeconds);
+                    removed.remove();
                 }
-            } catch (Exception ignore) {
             }
+        }
+    }
+
+    private void restartAgents() {
+        synchronized (managerSync) {
+            for (var entry : extraAgents.entrySet()) {
+                var agent = createAgent(entry.getKey());
+                if (agent == null) {
+                    continue;
+                }
+
+                handOver(entry.getValue(), agent);
+                entry.setValue(agent);
+                executor.submitLoop("manager-" + agent.name, agent);
+            }
+        }
+    }
+
+    /**
+     * @return manager for the named agent, or null if its config is invalid
+     */
+    private PlayitManager createAgent(String name) {
+        if (!name.matches("[a-zA-Z0-9_-]+")) {
+            log.warning("config.yml: agent name \"" + name + "\" may only use letters, digits, _ and -");
+            return null;
+        }
+
+        var path = CFG_AGENTS + "." + name;
+        var backend = getConfig().getString(path + ".backend");
+        if (backend == null) {
+            log.warning("config.yml: " + path + ".backend is missing");
+            return null;
+        }
 
-            new Thread(playitManager).start();
+        BackendTarget target;
+        try {
+            target = BackendTarget.parse(backend);
+        } catch (IllegalArgumentException e) {
+            log.warning("config.yml: " + path + ".backend: " + e.getMessage());
+            return null;
         }
+
+        return new PlayitManager(this, name, path + "." + CFG_AGENT_SECRET_KEY, target);
+    }
+
+    /* how long an online manager keeps its session while waiting for its replacement to connect */
+    private static final int HANDOVER_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Keep the previous manager serving until the replacement's control session is online,
+     * then drain it so players joining during a restart or secret change are not dropped.
+     */
+    private void handOver(PlayitManager previous, PlayitManager next) {
+        int drainSeconds = settings.drainTimeoutSeconds;
+
+        if (previous.state() != PlayitManager.STATE_ONLINE) {
+            previous.drain(drainSeconds);
+            return;
+        }
+
+        var handedOver = new AtomicBoolean();
+        next.onOnline = () -> {
+            if (handedOver.compareAndSet(false, true)) {
+                log.info("new control session online, draining previous session");
+                previous.drain(drainSeconds);
+            }
+        };
+
+        Bukkit.getScheduler().runTaskLater(this, () -> {
+            if (handedOver.compareAndSet(false, true)) {
+                log.warning("replacement session not online after " + HANDOVER_TIMEOUT_SECONDS + "s, draining previous session anyway");
+                previous.drain(drainSeconds);
+            }
+        }, 20L * HANDOVER_TIMEOUT_SECONDS);
     }
 
     @Override
@@ -442,7 +980,7 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
         }
 
         if (argCount == 0) {
-            return List.of("agent", "tunnel", "prop", "account", "createtunnels");
+            return List.of("agent", "tunnel", "prop", "account", "trace", "journal", "debug", "createtunnels");
         }
 
         if (args[0].equals("account")) {
@@ -453,7 +991,7 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
 
         if (args[0].equals("agent")) {
             if (argCount == 1) {
-                return List.of("set-secret", "shutdown", "status", "restart", "reset");
+                return List.of("set-secret", "shutdown", "status", "list", "restart", "reset");
             }
         }
 
@@ -467,13 +1005,41 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
                     return null;
                 }
 
-                return List.of(CFG_CONNECTION_TIMEOUT_SECONDS);
+                return List.of(
+                        CFG_CONNECTION_TIMEOUT_SECONDS,
+                        CFG_TRAFFIC_GLOBAL_READ_LIMIT,
+                        CFG_TRAFFIC_GLOBAL_WRITE_LIMIT,
+                        CFG_TRAFFIC_CHANNEL_READ_LIMIT,
+                        CFG_TRAFFIC_CHANNEL_WRITE_LIMIT
+                );
             }
         }
 
         if (args[0].equals("tunnel")) {
             if (argCount == 1) {
-                return List.of("get-address");
+                return List.of("get-address", "list", "routes");
+            }
+        }
+
+        if (args[0].equals("trace")) {
+            if (argCount == 1) {
+                return List.of("slowest");
+            }
+        }
+
+        if (args[0].equals("journal")) {
+            if (argCount == 1) {
+                return List.of("recent");
+            }
+        }
+
+        if (args[0].equals("debug")) {
+            if (argCount == 1) {
+                return List.of("capture", "replay", "tasks", "status-cache", "handshake-filter", "ip-rules", "lag");
+            }
+
+            if (argCount == 2 && args[1].equals("capture")) {
+                return List.of("start", "stop");
             }
         }
 
@@ -486,5 +1052,26 @@ public final class PlayitBukkit extends JavaPlugin implements Listener {
             playitManager.shutdown();
             playitManager = null;
         }
+
+        synchronized (managerSync) {
+            for (var agent : extraAgents.values()) {
+                agent.shutdown();
+            }
+            extraAgents.clear();
+        }
+
+        trafficShaper.release();
+        executor.shutdown();
+        BackendTarget.shutdown();
+
+        var j = journal;
+        journal = null;
+        if (j != null) {
+            try {
+                j.close();
+            } catch (IOException e) {
+                log.warning("failed to close connection journal: " + e);
+            }
+        }
     }
 }
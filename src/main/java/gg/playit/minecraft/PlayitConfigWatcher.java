@@ -0,0 +1,52 @@
+package gg.playit.minecraft;
+
+import java.io.File;
+
+/**
+ * Polls config.yml for changes. Run on the server thread from a repeating task, checking
+ * the modification time is a single stat so polling every few seconds costs nothing.
+ */
+class PlayitConfigWatcher implements Runnable {
+    private final File file;
+    private final Runnable onChange;
+    private final Runnable onDelete;
+    private long lastModified;
+    private long lastLength;
+
+    PlayitConfigWatcher(File file, Runnable onChange) {
+        this(file, onChange, null);
+    }
+
+    /**
+     * @param onDelete run once when the file disappears, null to wait for it to come back
+     */
+    PlayitConfigWatcher(File file, Runnable onChange, Runnable onDelete) {
+        this.file = file;
+        this.onChange = onChange;
+        this.onDelete = onDelete;
+        this.lastModified = file.lastModified();
+        this.lastLength = file.length();
+    }
+
+    @Override
+    public void run() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == lastModified && length == lastLength) {
+            return;
+        }
+
+        lastModified = modified;
+        lastLength = length;
+
+        if (modified == 0) {
+            /* deleted or being replaced, wait for it to come back */
+            if (onDelete != null) {
+                onDelete.run();
+            }
+            return;
+        }
+
+        onChange.run();
+    }
+}
@@ -0,0 +1,243 @@
+package gg.playit.minecraft;
+
+import gg.playit.messages.ControlFeedReader;
+import gg.playit.messages.SocketAddr;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Fixed size ring of connection records in a memory-mapped file. Appending is a
+ * handful of absolute puts into the mapping, so it is cheap enough to do on the
+ * event loop, and the OS flushes the pages so history survives restarts.
+ * <p>
+ * Layout: 64 byte header (magic, version, record size, capacity) followed by
+ * {@code capacity} records of {@link #RECORD_SIZE} bytes. A record's sequence
+ * number is published last behind a release fence and checked again after the
+ * fields are read, so readers skip half-written slots; 0 means the slot was
+ * never used.
+ */
+public class PlayitConnectionJournal implements Closeable {
+    static Logger log = Logger.getLogger(PlayitConnectionJournal.class.getName());
+
+    private static final int MAGIC = 0x504c434a; /* "PLCJ" */
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 128;
+
+    /* record field offsets */
+    private static final int OFF_SEQUENCE = 0;
+    private static final int OFF_OPENED_AT = 8;
+    private static final int OFF_CLOSED_AT = 16;
+    private static final int OFF_TUNNEL_SERVER_ID = 24;
+    private static final int OFF_DATA_CENTER_ID = 32;
+    private static final int OFF_CLOSE_REASON = 36;
+    private static final int OFF_INJECTED = 37;
+    private static final int OFF_PEER = 40;
+    private static final int OFF_CONNECT = 60;
+    private static final int OFF_BYTES_FROM_TUNNEL = 80;
+    private static final int OFF_BYTES_TO_TUNNEL = 88;
+    /* address: 1 byte length (4 or 16), 1 pad, 2 byte port, 16 byte ip = 20 bytes */
+
+    public enum CloseReason {
+        UNKNOWN,
+        CLOSED,
+        CLAIM_FAILED,
+        CLAIM_TIMEOUT,
+        HANDSHAKE_TIMEOUT,
+        IDLE_TIMEOUT,
+        BACKEND_FAILED,
+        RELAY_ERROR,
+        FILTERED;
+
+        static CloseReason fromCode(int code) {
+            var values = values();
+            return code >= 0 && code < values.length ? values[code] : UNKNOWN;
+        }
+    }
+
+    /**
+     * Connection details collected while the connection is open, appended on close.
+     */
+    public static class Record {
+        public long sequence;
+        public long openedAt;
+        public long closedAt;
+        public long tunnelServerId;
+        public int dataCenterId;
+        public SocketAddr peerAddr;
+        public SocketAddr connectAddr;
+        public long bytesFromTunnel;
+        public long bytesToTunnel;
+        public boolean injected;
+        public CloseReason closeReason = CloseReason.CLOSED;
+
+        public Record() {
+        }
+
+        public Record(ControlFeedReader.NewClient newClient) {
+            this.openedAt = System.currentTimeMillis();
+            this.tunnelServerId = newClient.tunnelServerId;
+            this.dataCenterId = newClient.dataCenterId;
+            this.peerAddr = newClient.peerAddr;
+            this.connectAddr = newClient.connectAddr;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + peerAddr + " -> " + connectAddr +
+                    ", server " + tunnelServerId + "/" + dataCenterId +
+                    ", " + (injected ? "injected" : "relay") +
+                    ", " + ((closedAt - openedAt) / 1000) + "s" +
+                    ", in " + bytesFromTunnel + "B out " + bytesToTunnel + "B" +
+                    ", " + closeReason;
+        }
+    }
+
+    private final FileChannel file;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private final AtomicLong nextSequence;
+
+    public PlayitConnectionJournal(File path, int capacity) throws IOException {
+        this.file = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+        this.map = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.map.order(ByteOrder.BIG_ENDIAN);
+
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != RECORD_SIZE || map.getInt(12) != capacity) {
+            if (map.getInt(0) == MAGIC) {
+                log.info("connection journal layout changed, starting a new journal");
+            }
+
+            for (int i = 0; i < size; i += 8) {
+                map.putLong(i, 0);
+            }
+
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, RECORD_SIZE);
+            map.putInt(12, capacity);
+        }
+
+        this.capacity = capacity;
+
+        long maxSequence = 0;
+        for (int i = 0; i < capacity; i++) {
+            maxSequence = Math.max(maxSequence, map.getLong(offset(i) + OFF_SEQUENCE));
+        }
+        this.nextSequence = new AtomicLong(maxSequence + 1);
+    }
+
+    private static int offset(long slot) {
+        return HEADER_SIZE + (int) slot * RECORD_SIZE;
+    }
+
+    /**
+     * Safe to call from any thread, each call writes its own slot.
+     */
+    public void append(Record record) {
+        long sequence = nextSequence.getAndIncrement();
+        int base = offset(sequence % capacity);
+
+        /* mark the slot as being rewritten before touching the fields */
+        map.putLong(base + OFF_SEQUENCE, 0);
+        VarHandle.storeStoreFence();
+        map.putLong(base + OFF_OPENED_AT, record.openedAt);
+        map.putLong(base + OFF_CLOSED_AT, record.closedAt);
+        map.putLong(base + OFF_TUNNEL_SERVER_ID, record.tunnelServerId);
+        map.putInt(base + OFF_DATA_CENTER_ID, record.dataCenterId);
+        map.put(base + OFF_CLOSE_REASON, (byte) record.closeReason.ordinal());
+        map.put(base + OFF_INJECTED, (byte) (record.injected ? 1 : 0));
+        putAddress(base + OFF_PEER, record.peerAddr);
+        putAddress(base + OFF_CONNECT, record.connectAddr);
+        map.putLong(base + OFF_BYTES_FROM_TUNNEL, record.bytesFromTunnel);
+        map.putLong(base + OFF_BYTES_TO_TUNNEL, record.bytesToTunnel);
+        VarHandle.releaseFence();
+        map.putLong(base + OFF_SEQUENCE, sequence);
+    }
+
+    private void putAddress(int at, SocketAddr addr) {
+        if (addr == null) {
+            map.put(at, (byte) 0);
+            return;
+        }
+
+        map.put(at, (byte) addr.ipBytes.length);
+        map.putShort(at + 2, addr.portNumber);
+        for (int i = 0; i < addr.ipBytes.length; i++) {
+            map.put(at + 4 + i, addr.ipBytes[i]);
+        }
+    }
+
+    private SocketAddr getAddress(int at) {
+        int length = map.get(at);
+        if (length != 4 && length != 16) {
+            return null;
+        }
+
+        var addr = new SocketAddr();
+        addr.ipBytes = new byte[length];
+        addr.portNumber = map.getShort(at + 2);
+        for (int i = 0; i < length; i++) {
+            addr.ipBytes[i] = map.get(at + 4 + i);
+        }
+        return addr;
+    }
+
+    /**
+     * @return up to count most recent records, newest first
+     */
+    public List<Record> recent(int count) {
+        var records = new ArrayList<Record>();
+        long sequence = nextSequence.get() - 1;
+
+        for (; sequence > 0 && records.size() < count && nextSequence.get() - sequence <= capacity; sequence--) {
+            int base = offset(sequence % capacity);
+            if (map.getLong(base + OFF_SEQUENCE) != sequence) {
+                /* still being written or already overwritten */
+                continue;
+            }
+            VarHandle.acquireFence();
+
+            var record = new Record();
+            record.sequence = sequence;
+            record.openedAt = map.getLong(base + OFF_OPENED_AT);
+            record.closedAt = map.getLong(base + OFF_CLOSED_AT);
+            record.tunnelServerId = map.getLong(base + OFF_TUNNEL_SERVER_ID);
+            record.dataCenterId = map.getInt(base + OFF_DATA_CENTER_ID);
+            record.closeReason = CloseReason.fromCode(map.get(base + OFF_CLOSE_REASON));
+            record.injected = map.get(base + OFF_INJECTED) == 1;
+            record.peerAddr = getAddress(base + OFF_PEER);
+            record.connectAddr = getAddress(base + OFF_CONNECT);
+            record.bytesFromTunnel = map.getLong(base + OFF_BYTES_FROM_TUNNEL);
+            record.bytesToTunnel = map.getLong(base + OFF_BYTES_TO_TUNNEL);
+
+            /* rewritten while reading */
+            VarHandle.loadLoadFence();
+            if (map.getLong(base + OFF_SEQUENCE) != sequence) {
+                continue;
+            }
+            records.add(record);
+        }
+
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.force();
+        file.close();
+    }
+}
@@ -1,14 +1,33 @@
 package gg.playit.minecraft;
 
-import java.util.HashSet;
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 
 public class PlayitConnectionTracker {
     private final Object sync = new Object();
-    private final HashSet<String> activeConnections = new HashSet<>();
+    /* value is the tunnel channel once connected, null while the claim is being dialed */
+    private final HashMap<String, Channel> activeConnections = new HashMap<>();
 
     public boolean addConnection(String key) {
         synchronized (sync) {
-            return activeConnections.add(key);
+            if (activeConnections.containsKey(key)) {
+                return false;
+            }
+            activeConnections.put(key, null);
+            return true;
+        }
+    }
+
+    /**
+     * Remember the connection's tunnel channel so a drain can close it after its deadline.
+     */
+    public void attach(String key, Channel channel) {
+        synchronized (sync) {
+            if (activeConnections.containsKey(key)) {
+                activeConnections.put(key, channel);
+            }
         }
     }
 
@@ -17,4 +36,32 @@ public class PlayitConnectionTracker {
             activeConnections.remove(key);
         }
     }
+
+    public int size() {
+        synchronized (sync) {
+            return activeConnections.size();
+        }
+    }
+
+    /**
+     * Close every tracked connection.
+     *
+     * @return number of channels closed
+     */
+    public int closeAll() {
+        ArrayList<Channel> channels;
+        synchronized (sync) {
+            channels = new ArrayList<>(activeConnections.values());
+            activeConnections.clear();
+        }
+
+        int closed = 0;
+        for (var channel : channels) {
+            if (channel != null) {
+                channel.close();
+                closed++;
+            }
+        }
+        return closed;
+    }
 }
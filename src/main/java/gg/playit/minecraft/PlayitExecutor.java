@@ -0,0 +1,181 @@
+package gg.playit.minecraft;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs all blocking plugin work (API calls, the control channel loop, admin commands).
+ * Uses a virtual thread per task when the runtime has them (Java 21+) and a bounded
+ * platform thread pool otherwise. Either way at most {@code maxConcurrent} tasks run
+ * at once; with virtual threads extra tasks wait for a permit, with the pool they
+ * queue, and once the queue is full submissions are rejected.
+ * <p>
+ * Loops that run until shutdown (agent managers, control session readers) go through
+ * {@link #submitLoop(String, Runnable)} instead and get a thread of their own, so they
+ * never hold the permits short tasks need.
+ */
+public class PlayitExecutor {
+    static Logger log = Logger.getLogger(PlayitExecutor.class.getName());
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final String name;
+    private final ExecutorService delegate;
+    private final ExecutorService loops;
+    private final boolean virtual;
+    private final Semaphore permits;
+
+    private final AtomicLong nextTaskId = new AtomicLong();
+    private final ConcurrentHashMap<Long, String> running = new ConcurrentHashMap<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger liveThreads = new AtomicInteger();
+    private final AtomicInteger peakThreads = new AtomicInteger();
+
+    public PlayitExecutor(String name, int maxConcurrent) {
+        this.name = name;
+        this.permits = new Semaphore(maxConcurrent);
+
+        var virtualExecutor = virtualThreadExecutor(name);
+        if (virtualExecutor != null) {
+            this.delegate = virtualExecutor;
+            this.loops = virtualThreadExecutor(name + "-loop");
+            this.virtual = true;
+        } else {
+            this.loops = Executors.newCachedThreadPool(platformThreadFactory(name + "-loop"));
+            var pool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(QUEUE_CAPACITY), platformThreadFactory(name));
+            pool.allowCoreThreadTimeOut(true);
+            this.delegate = pool;
+            this.virtual = false;
+        }
+
+        log.info(name + " executor using " + (virtual ? "virtual threads" : "a platform thread pool") + ", max " + maxConcurrent + " concurrent tasks");
+    }
+
+    /**
+     * Built through reflection so the plugin still compiles for and runs on Java 16, the build target.
+     */
+    private static ExecutorService virtualThreadExecutor(String name) {
+        try {
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            var factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private ThreadFactory platformThreadFactory(String name) {
+        var counter = new AtomicInteger();
+        return task -> {
+            var thread = new Thread(task, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Run a blocking task.
+     *
+     * @param taskName shown in {@link #runningTasks()} and in error logs
+     * @throws RejectedExecutionException if the executor is shut down or its queue is full
+     */
+    public Future<?> submit(String taskName, Runnable task) {
+        return delegate.submit(tracked(taskName, task, virtual));
+    }
+
+    /**
+     * Run a task that lives until shutdown on a thread of its own, outside the concurrency
+     * limit of {@link #submit(String, Runnable)}.
+     *
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    public Future<?> submitLoop(String taskName, Runnable task) {
+        return loops.submit(tracked(taskName, task, false));
+    }
+
+    private Runnable tracked(String taskName, Runnable task, boolean usePermit) {
+        long id = nextTaskId.getAndIncrement();
+        submitted.incrementAndGet();
+
+        return () -> {
+            boolean acquired = false;
+
+            try {
+                if (usePermit) {
+                    permits.acquire();
+                    acquired = true;
+                }
+
+                running.put(id, taskName);
+                int live = liveThreads.incrementAndGet();
+                peakThreads.accumulateAndGet(live, Math::max);
+
+                try {
+                    task.run();
+                    completed.incrementAndGet();
+                } finally {
+                    liveThreads.decrementAndGet();
+                    running.remove(id);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                log.severe("task " + taskName + " failed: " + e);
+            } finally {
+                if (acquired) {
+                    permits.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return names of the tasks currently running
+     */
+    public List<String> runningTasks() {
+        return new ArrayList<>(running.values());
+    }
+
+    /**
+     * Interrupt running tasks and drop queued ones, used on plugin disable.
+     */
+    public void shutdown() {
+        var dropped = delegate.shutdownNow();
+        loops.shutdownNow();
+        if (!running.isEmpty() || !dropped.isEmpty()) {
+            log.info(name + " executor shutdown, interrupted " + running.size() + " running and dropped " + dropped.size() + " queued tasks");
+        }
+    }
+
+    @Override
+    public String toString() {
+        int queued = delegate instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : permits.getQueueLength();
+        return name + " executor (" + (virtual ? "virtual" : "platform") + "): " +
+                "running " + liveThreads.get() +
+                ", queued " + queued +
+                ", peak " + peakThreads.get() +
+                ", submitted " + submitted.get() +
+                ", completed " + completed.get() +
+                ", failed " + failed.get();
+    }
+}
@@ -4,13 +4,17 @@ import gg.playit.api.ApiClient;
 import gg.playit.api.ApiError;
 import gg.playit.api.actions.CreateTunnel;
 import gg.playit.api.models.AccountTunnel;
+import gg.playit.api.models.AccountTunnels;
 import gg.playit.api.models.Notice;
 import gg.playit.api.models.PortType;
 import gg.playit.api.models.TunnelType;
 import gg.playit.minecraft.utils.Hex;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -45,6 +49,13 @@ public class PlayitKeysSetup {
     private final PlayitKeys keys = new PlayitKeys();
     private String claimCode;
 
+    private ApiClient api;
+    private CompletableFuture<AccountTunnels> pendingTunnels;
+    private boolean haveJava;
+    private boolean haveBedrock;
+    private boolean bedrockCreateAttempted;
+    private long setupStartedAt;
+
     public int getState() {
         return state.get();
     }
@@ -57,176 +68,241 @@ public class PlayitKeysSetup {
         return claimCode;
     }
 
+    /**
+     * Advance the setup state machine. Steps that don't need to wait for the user run
+     * back to back within one call, so this only returns null when waiting on a claim,
+     * after an error, or while a newly created tunnel has not shown up yet.
+     */
     public PlayitKeys progress() throws IOException {
-        switch (state.get()) {
-            case STATE_INIT -> {
-                if (keys.secretKey == null) {
-                    state.compareAndSet(STATE_INIT, STATE_MISSING_SECRET);
-                    return null;
-                }
+        if (setupStartedAt == 0) {
+            setupStartedAt = System.nanoTime();
+        }
 
-                state.compareAndSet(STATE_INIT, STATE_CHECKING_SECRET);
-                log.info("secret key found, checking");
-                return null;
-            }
-            case STATE_MISSING_SECRET -> {
-                if (claimCode == null) {
-                    byte[] array = new byte[8];
-                    new Random().nextBytes(array);
-                    claimCode = Hex.encodeHexString(array);
-                    log.info("secret key not set, generate claim code: " + claimCode);
+        while (true) {
+            switch (state.get()) {
+                case STATE_INIT -> {
+                    if (keys.secretKey == null) {
+                        state.compareAndSet(STATE_INIT, STATE_MISSING_SECRET);
+                        return null;
+                    }
+
+                    state.compareAndSet(STATE_INIT, STATE_CHECKING_SECRET);
+                    log.info("secret key found, checking");
                 }
+                case STATE_MISSING_SECRET -> {
+                    if (claimCode == null) {
+                        byte[] array = new byte[8];
+                        new Random().nextBytes(array);
+                        claimCode = Hex.encodeHexString(array);
+                        log.info("secret key not set, generate claim code: " + claimCode);
+                    }
+
+                    log.info("trying to exchange claim code for secret");
+                    keys.secretKey = openClient.exchangeClaimForSecret(claimCode);
 
-                log.info("trying to exchange claim code for secret");
-                keys.secretKey = openClient.exchangeClaimForSecret(claimCode);
+                    if (keys.secretKey == null) {
+                        log.info("failed to exchange, to claim visit: https://playit.gg/mc/" + claimCode);
+                        return null;
+                    }
 
-                if (keys.secretKey == null) {
-                    log.info("failed to exchange, to claim visit: https://playit.gg/mc/" + claimCode);
-                } else {
                     state.compareAndSet(STATE_MISSING_SECRET, STATE_CHECKING_SECRET);
                 }
+                case STATE_CHECKING_SECRET -> {
+                    log.info("check secret");
 
-                return null;
-            }
-            case STATE_CHECKING_SECRET -> {
-                log.info("check secret");
+                    api = new ApiClient(keys.secretKey);
 
-                var api = new ApiClient(keys.secretKey);
-                try {
-                    var status = api.getStatus();
+                    /* the tunnel list doesn't depend on the status response, fetch both at once */
+                    var statusFuture = api.getStatusAsync();
+                    pendingTunnels = api.listTunnelsAsync();
 
-                    keys.isGuest = status.isGuest;
-                    keys.isEmailVerified = status.emailVerified;
-                    keys.agentId = status.agentId;
-                    keys.notice = status.notice;
+                    try {
+                        var status = ApiClient.await(statusFuture);
 
-                    state.compareAndSet(STATE_CHECKING_SECRET, STATE_CREATING_TUNNEL);
-                    return null;
-                } catch (ApiError e) {
-                    if (e.statusCode == 401 || e.statusCode == 400) {
-                        if (claimCode == null) {
-                            log.info("secret key invalid, starting over");
-                            state.compareAndSet(STATE_CHECKING_SECRET, STATE_MISSING_SECRET);
-                        } else {
-                            state.compareAndSet(STATE_CHECKING_SECRET, STATE_ERROR);
-                            log.info("secret failed verification after creating, moving to error state");
+                        keys.isGuest = status.isGuest;
+                        keys.isEmailVerified = status.emailVerified;
+                        keys.agentId = status.agentId;
+                        keys.notice = status.notice;
+
+                        state.compareAndSet(STATE_CHECKING_SECRET, STATE_CREATING_TUNNEL);
+                    } catch (ApiError e) {
+                        pendingTunnels = null;
+
+                        if (e.statusCode == 401 || e.statusCode == 400) {
+                            if (claimCode == null) {
+                                log.info("secret key invalid, starting over");
+                                state.compareAndSet(STATE_CHECKING_SECRET, STATE_MISSING_SECRET);
+                            } else {
+                                state.compareAndSet(STATE_CHECKING_SECRET, STATE_ERROR);
+                                log.info("secret failed verification after creating, moving to error state");
+                            }
+
+                            return null;
                         }
 
-                        return null;
+                        throw e;
+                    } catch (IOException e) {
+                        pendingTunnels = null;
+                        throw e;
                     }
-
-                    throw e;
                 }
-            }
-            case STATE_CREATING_TUNNEL -> {
-                var api = new ApiClient(keys.secretKey);
+                case STATE_CREATING_TUNNEL -> {
+                    if (api == null) {
+                        api = new ApiClient(keys.secretKey);
+                    }
 
-                var tunnels = api.listTunnels();
-                keys.tunnelAddress = null;
-                keys.bedrockTunnelAddress = null;
+                    var tunnelsFuture = pendingTunnels != null ? pendingTunnels : api.listTunnelsAsync();
+                    pendingTunnels = null;
 
-                boolean haveJava = false;
-                boolean haveBedrock = false;
+                    if (findTunnels(ApiClient.await(tunnelsFuture))) {
+                        log.info("key and tunnel setup took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - setupStartedAt) + "ms");
+                        return keys;
+                    }
 
-                for (AccountTunnel tunnel : tunnels.tunnels) {
-                    if (tunnel.tunnelType == TunnelType.MinecraftJava) {
-                        keys.tunnelAddress = tunnel.displayAddress;
-                        haveJava = true;
-                        log.info("found minecraft java tunnel: " + keys.tunnelAddress);
+                    /* java and bedrock tunnels are independent, create them in parallel */
+                    var creates = new ArrayList<CompletableFuture<Void>>();
+                    if (!haveJava) {
+                        creates.add(createJavaTunnel());
                     }
-                    // Check for both MinecraftBedrock and Custom UDP tunnels (Custom is used as fallback for Bedrock)
-                    if ((tunnel.tunnelType == TunnelType.MinecraftBedrock || tunnel.tunnelType == TunnelType.Custom) && tunnel.portType == PortType.UDP) {
-                        keys.bedrockTunnelAddress = tunnel.displayAddress;
-                        haveBedrock = true;
-                        log.info("found minecraft bedrock/UDP tunnel: " + tunnel.displayAddress + " (type: " + tunnel.tunnelType + ")");
+                    if (needBedrock()) {
+                        creates.add(createBedrockTunnel());
                     }
-                }
 
-                // Always create Java tunnel if not found
-                if (!haveJava) {
-                    log.info("Creating new minecraft java tunnel on local port " + javaLocalPort);
+                    if (creates.isEmpty()) {
+                        return null;
+                    }
 
-                    var create = new CreateTunnel();
-                    create.localIp = "127.0.0.1";
-                    create.localPort = javaLocalPort;
-                    create.portCount = 1;
-                    create.portType = PortType.TCP;
-                    create.tunnelType = TunnelType.MinecraftJava;
-                    create.agentId = keys.agentId;
+                    CompletableFuture.allOf(creates.toArray(new CompletableFuture[0])).join();
 
-                    log.info("[PlayitKeysSetup] API Request - Creating Java tunnel: tunnel_type=minecraft-java, port_type=tcp, local_ip=127.0.0.1, local_port=" + javaLocalPort + ", agent_id=" + keys.agentId);
-                    try {
-                        api.createTunnel(create);
-                        log.info("[PlayitKeysSetup] Successfully created Java tunnel request");
-                    } catch (ApiError e) {
-                        log.warning("[PlayitKeysSetup] Failed to create Java tunnel: " + e.getMessage());
-                        if (e.responseBody != null && e.responseBody.contains("tunnel already exists")) {
-                            log.info("[PlayitKeysSetup] Tunnel already exists for agent. Checking existing tunnels...");
-                            log.warning("[PlayitKeysSetup] If local_port mismatch, update in playit dashboard: https://playit.gg/account");
-                        } else {
-                            log.warning("[PlayitKeysSetup] API Response: " + e.responseBody);
-                            log.warning("[PlayitKeysSetup] Recommended: Visit https://playit.gg/account to check your tunnels");
-                        }
+                    /* check for the new tunnels straight away instead of on the next call */
+                    if (findTunnels(ApiClient.await(api.listTunnelsAsync()))) {
+                        log.info("key and tunnel setup took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - setupStartedAt) + "ms");
+                        return keys;
                     }
+
                     return null; // Wait for tunnel to appear
                 }
-
-                // Handle Bedrock tunnel based on configuration
-                if (isGeyserPresent && !haveBedrock) {
-                    if (autoCreateBedrockTunnel) {
-                        // Auto-create Bedrock tunnel using Custom UDP type to avoid "Invalid Origin" errors
-                        log.info("auto_create_bedrock_tunnel is enabled, creating new Bedrock UDP tunnel on port " + bedrockLocalPort);
-                        var create = new CreateTunnel();
-                        create.localIp = "127.0.0.1";
-                        create.localPort = bedrockLocalPort;
-                        create.portCount = 1;
-                        create.portType = PortType.UDP;
-                        create.tunnelType = TunnelType.Custom;
-                        create.agentId = keys.agentId;
-                        
-                        log.info("[PlayitKeysSetup] API Request - Creating Bedrock tunnel: tunnel_type=custom, port_type=udp, local_ip=127.0.0.1, local_port=" + bedrockLocalPort + ", agent_id=" + keys.agentId);
-                        try {
-                            api.createTunnel(create);
-                            log.info("[PlayitKeysSetup] Successfully created Bedrock tunnel request");
-                        } catch (ApiError e) {
-                            log.warning("[PlayitKeysSetup] Failed to create Bedrock tunnel: " + e.getMessage());
-                            if (e.responseBody != null) {
-                                log.warning("[PlayitKeysSetup] API Response: " + e.responseBody);
-                                if (e.responseBody.contains("tunnel already exists")) {
-                                    log.info("[PlayitKeysSetup] Tunnel already exists for agent. Checking existing tunnels...");
-                                    log.warning("[PlayitKeysSetup] If local_port mismatch, update in playit dashboard: https://playit.gg/account");
-                                } else if (e.responseBody.contains("Invalid Origin")) {
-                                    log.warning("[PlayitKeysSetup] 'Invalid Origin' error. This may be a playit.gg API limitation.");
-                                    log.warning("[PlayitKeysSetup] Try creating the Bedrock tunnel manually at: https://playit.gg/account");
-                                }
-                            }
-                            log.warning("[PlayitKeysSetup] Recommended: Visit https://playit.gg/account to manage your tunnels");
-                        }
-                        return null; // Wait for tunnel to appear
-                    } else if (promptAdminForBedrock && !adminPromptSent) {
-                        // Prompt admin to create Bedrock tunnel manually
-                        log.info("==============================================");
-                        log.info("[playit.gg] Geyser-Spigot detected!");
-                        log.info("[playit.gg] To create a Bedrock tunnel for Bedrock/mobile players,");
-                        log.info("[playit.gg] run: /playit createtunnels");
-                        log.info("[playit.gg] Or set 'auto_create_bedrock_tunnel: true' in config.yml");
-                        log.info("==============================================");
-                        PlayitTunnelHelper.notifyAdminAboutBedrockTunnel();
-                        adminPromptSent = true;
-                    }
+                default -> {
+                    return null;
                 }
+            }
+        }
+    }
 
-                // Java tunnel is ready (Bedrock is optional unless auto_create is enabled)
-                if (haveJava) {
-                    return keys;
-                }
+    /**
+     * Record the java / bedrock tunnels in the list and handle the bedrock admin prompt.
+     *
+     * @return true once the java tunnel exists and no bedrock tunnel still needs to be created
+     */
+    private boolean findTunnels(AccountTunnels tunnels) {
+        keys.tunnelAddress = null;
+        keys.bedrockTunnelAddress = null;
+        haveJava = false;
+        haveBedrock = false;
+
+        for (AccountTunnel tunnel : tunnels.tunnels) {
+            if (tunnel.tunnelType == TunnelType.MinecraftJava) {
+                keys.tunnelAddress = tunnel.displayAddress;
+                haveJava = true;
+                log.info("found minecraft java tunnel: " + keys.tunnelAddress);
+            }
+            // Check for both MinecraftBedrock and Custom UDP tunnels (Custom is used as fallback for Bedrock)
+            if ((tunnel.tunnelType == TunnelType.MinecraftBedrock || tunnel.tunnelType == TunnelType.Custom) && tunnel.portType == PortType.UDP) {
+                keys.bedrockTunnelAddress = tunnel.displayAddress;
+                haveBedrock = true;
+                log.info("found minecraft bedrock/UDP tunnel: " + tunnel.displayAddress + " (type: " + tunnel.tunnelType + ")");
+            }
+        }
+
+        if (isGeyserPresent && !haveBedrock && !autoCreateBedrockTunnel && promptAdminForBedrock && !adminPromptSent) {
+            // Prompt admin to create Bedrock tunnel manually
+            log.info("==============================================");
+            log.info("[playit.gg] Geyser-Spigot detected!");
+            log.info("[playit.gg] To create a Bedrock tunnel for Bedrock/mobile players,");
+            log.info("[playit.gg] run: /playit createtunnels");
+            log.info("[playit.gg] Or set 'auto_create_bedrock_tunnel: true' in config.yml");
+            log.info("==============================================");
+            PlayitTunnelHelper.notifyAdminAboutBedrockTunnel();
+            adminPromptSent = true;
+        }
+
+        // Java tunnel is ready (Bedrock is optional unless auto_create is enabled)
+        return haveJava && !needBedrock();
+    }
 
+    private boolean needBedrock() {
+        return isGeyserPresent && !haveBedrock && autoCreateBedrockTunnel && !bedrockCreateAttempted;
+    }
+
+    private CompletableFuture<Void> createJavaTunnel() {
+        log.info("Creating new minecraft java tunnel on local port " + javaLocalPort);
+
+        var create = new CreateTunnel();
+        create.localIp = "127.0.0.1";
+        create.localPort = javaLocalPort;
+        create.portCount = 1;
+        create.portType = PortType.TCP;
+        create.tunnelType = TunnelType.MinecraftJava;
+        create.agentId = keys.agentId;
+
+        log.info("[PlayitKeysSetup] API Request - Creating Java tunnel: tunnel_type=minecraft-java, port_type=tcp, local_ip=127.0.0.1, local_port=" + javaLocalPort + ", agent_id=" + keys.agentId);
+        return api.createTunnelAsync(create).handle((created, error) -> {
+            if (error == null) {
+                log.info("[PlayitKeysSetup] Successfully created Java tunnel request");
                 return null;
             }
-            default -> {
+
+            var cause = error.getCause() != null ? error.getCause() : error;
+            log.warning("[PlayitKeysSetup] Failed to create Java tunnel: " + cause.getMessage());
+            if (cause instanceof ApiError e && e.responseBody != null && e.responseBody.contains("tunnel already exists")) {
+                log.info("[PlayitKeysSetup] Tunnel already exists for agent. Checking existing tunnels...");
+                log.warning("[PlayitKeysSetup] If local_port mismatch, update in playit dashboard: https://playit.gg/account");
+            } else {
+                if (cause instanceof ApiError e) {
+                    log.warning("[PlayitKeysSetup] API Response: " + e.responseBody);
+                }
+                log.warning("[PlayitKeysSetup] Recommended: Visit https://playit.gg/account to check your tunnels");
+            }
+            return null;
+        });
+    }
+
+    private CompletableFuture<Void> createBedrockTunnel() {
+        /* only try once per setup, a failure here must not hold back the java tunnel */
+        bedrockCreateAttempted = true;
+
+        // Auto-create Bedrock tunnel using Custom UDP type to avoid "Invalid Origin" errors
+        log.info("auto_create_bedrock_tunnel is enabled, creating new Bedrock UDP tunnel on port " + bedrockLocalPort);
+        var create = new CreateTunnel();
+        create.localIp = "127.0.0.1";
+        create.localPort = bedrockLocalPort;
+        create.portCount = 1;
+        create.portType = PortType.UDP;
+        create.tunnelType = TunnelType.Custom;
+        create.agentId = keys.agentId;
+
+        log.info("[PlayitKeysSetup] API Request - Creating Bedrock tunnel: tunnel_type=custom, port_type=udp, local_ip=127.0.0.1, local_port=" + bedrockLocalPort + ", agent_id=" + keys.agentId);
+        return api.createTunnelAsync(create).handle((created, error) -> {
+            if (error == null) {
+                log.info("[PlayitKeysSetup] Successfully created Bedrock tunnel request");
                 return null;
             }
-        }
+
+            var cause = error.getCause() != null ? error.getCause() : error;
+            log.warning("[PlayitKeysSetup] Failed to create Bedrock tunnel: " + cause.getMessage());
+            if (cause instanceof ApiError e && e.responseBody != null) {
+                log.warning("[PlayitKeysSetup] API Response: " + e.responseBody);
+                if (e.responseBody.contains("tunnel already exists")) {
+                    log.info("[PlayitKeysSetup] Tunnel already exists for agent. Checking existing tunnels...");
+                    log.warning("[PlayitKeysSetup] If local_port mismatch, update in playit dashboard: https://playit.gg/account");
+                } else if (e.responseBody.contains("Invalid Origin")) {
+                    log.warning("[PlayitKeysSetup] 'Invalid Origin' error. This may be a playit.gg API limitation.");
+                    log.warning("[PlayitKeysSetup] Try creating the Bedrock tunnel manually at: https://playit.gg/account");
+                }
+            }
+            log.warning("[PlayitKeysSetup] Recommended: Visit https://playit.gg/account to manage your tunnels");
+            return null;
+        });
     }
 
     public static class PlayitKeys {
@@ -237,5 +313,17 @@ public class PlayitKeysSetup {
         public boolean isGuest;
         public boolean isEmailVerified;
         public Notice notice;
+
+        PlayitKeys copy() {
+            var copy = new PlayitKeys();
+            copy.secretKey = secretKey;
+            copy.agentId = agentId;
+            copy.tunnelAddress = tunnelAddress;
+            copy.bedrockTunnelAddress = bedrockTunnelAddress;
+            copy.isGuest = isGuest;
+            copy.isEmailVerified = isEmailVerified;
+            copy.notice = notice;
+            return copy;
+        }
     }
 }
@@ -2,14 +2,23 @@ package gg.playit.minecraft;
 
 import gg.playit.api.ApiClient;
 import gg.playit.api.models.Notice;
+import gg.playit.control.ControlFeedRecorder;
+import gg.playit.control.ControlFeedReplayer;
+import gg.playit.control.ControlFailover;
 import gg.playit.control.PlayitControlChannel;
+import gg.playit.jfr.NewClientEvent;
 import gg.playit.messages.ControlFeedReader;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -17,6 +26,7 @@ public class PlayitManager implements Runnable {
     static Logger log = Logger.getLogger(PlayitManager.class.getName());
     private final AtomicInteger state = new AtomicInteger(STATE_INIT);
     private final PlayitConnectionTracker tracker = new PlayitConnectionTracker();
+    private volatile ControlFeedRecorder recorder;
 
     private final PlayitBukkit plugin;
     private final boolean isGeyserPresent;
@@ -25,25 +35,69 @@ public class PlayitManager implements Runnable {
     private final boolean autoCreateBedrockTunnel;
     private final boolean promptAdminForBedrock;
 
+    /* set while the control feed is read through a primary and a standby session */
+    private volatile ControlFailover failover;
+    /* the single control session, while connected */
+    private volatile PlayitControlChannel control;
+
+    /* null for the server's own agent */
+    public final String name;
+    private final String secretConfigPath;
+    /* null forwards to this server, with pipeline injection */
+    private final BackendTarget backend;
+
     public PlayitManager(PlayitBukkit plugin, boolean isGeyserPresent, int javaLocalPort, int bedrockLocalPort, 
                          boolean autoCreateBedrockTunnel, boolean promptAdminForBedrock) {
+        this(plugin, null, PlayitBukkit.CFG_AGENT_SECRET_KEY, null, isGeyserPresent, javaLocalPort, bedrockLocalPort, autoCreateBedrockTunnel, promptAdminForBedrock);
+    }
+
+    /**
+     * Manager for an additional agent which relays its players to another server.
+     *
+     * @param name             agent name from the config, used in logs and file names
+     * @param secretConfigPath config path the agent's secret is read from and saved to
+     * @param backend          server to relay players to
+     */
+    public PlayitManager(PlayitBukkit plugin, String name, String secretConfigPath, BackendTarget backend) {
+        /* tunnels of socket backends still need a local port, they get the minecraft default */
+        this(plugin, name, secretConfigPath, backend, false,
+                backend.address instanceof InetSocketAddress tcp ? tcp.getPort() : 25565, 0, false, false);
+    }
+
+    private PlayitManager(PlayitBukkit plugin, String name, String secretConfigPath, BackendTarget backend,
+                          boolean isGeyserPresent, int javaLocalPort, int bedrockLocalPort,
+                          boolean autoCreateBedrockTunnel, boolean promptAdminForBedrock) {
         this.plugin = plugin;
+        this.name = name;
+        this.secretConfigPath = secretConfigPath;
+        this.backend = backend;
         this.isGeyserPresent = isGeyserPresent;
         this.javaLocalPort = javaLocalPort;
         this.bedrockLocalPort = bedrockLocalPort;
         this.autoCreateBedrockTunnel = autoCreateBedrockTunnel;
         this.promptAdminForBedrock = promptAdminForBedrock;
 
-        var secret = plugin.getConfig().getString(PlayitBukkit.CFG_AGENT_SECRET_KEY);
+        var secret = plugin.getConfig().getString(secretConfigPath);
         if (secret != null && secret.length() < 32) {
             secret = null;
         }
 
+        configuredSecret = secret;
+        snapshotFile = new File(plugin.getDataFolder(), name == null ? "agent-snapshot.yml" : "agent-snapshot-" + name + ".yml");
         setup = new PlayitKeysSetup(secret, state, isGeyserPresent, javaLocalPort, bedrockLocalPort, autoCreateBedrockTunnel, promptAdminForBedrock);
     }
 
+    private final String configuredSecret;
+    private final File snapshotFile;
     private final PlayitKeysSetup setup;
+    /* never modified in place, changes swap in an updated copy under keysLock */
     private volatile PlayitKeysSetup.PlayitKeys keys;
+    private final Object keysLock = new Object();
+    private volatile PlayitTunnelInventory tunnelInventory;
+    private volatile BukkitTask inventoryTask;
+
+    /* how often the tunnel inventory is re-fetched from the API */
+    private static final long INVENTORY_REFRESH_TICKS = 20 * 60;
 
     public boolean isGuest() {
         return keys != null && keys.isGuest;
@@ -76,7 +130,6 @@ public class PlayitManager implements Runnable {
         return k.agentId;
     }
 
-    public volatile int connectionTimeoutSeconds = 30;
     public static final int STATE_INIT = -1;
     public static final int STATE_OFFLINE = 10;
     public static final int STATE_CONNECTING = 11;
@@ -84,15 +137,415 @@ public class PlayitManager implements Runnable {
     public static final int STATE_ERROR_WAITING = 13;
     public static final int STATE_SHUTDOWN = 0;
     public static final int STATE_INVALID_AUTH = 15;
+    public static final int STATE_DRAINING = 16;
+
+    /* run once when the control session first comes online, used to hand over from a previous manager */
+    public volatile Runnable onOnline;
+    private volatile long drainDeadline;
+
+    /**
+     * @return the account's tunnels, or null until keys are setup
+     */
+    public PlayitTunnelInventory getTunnelInventory() {
+        return tunnelInventory;
+    }
 
     public void shutdown() {
         state.compareAndSet(STATE_ONLINE, STATE_SHUTDOWN);
+
+        var task = inventoryTask;
+        if (task != null) {
+            task.cancel();
+        }
+
+        try {
+            stopCapture();
+        } catch (IOException e) {
+            log.warning("failed to close control capture: " + e);
+        }
+    }
+
+    /**
+     * @return where this agent's players are sent, for status output
+     */
+    public String backendDescription() {
+        return backend == null ? "this server" : backend.toString();
+    }
+
+    /**
+     * Announce to players, only for the server's own agent since players here can't use
+     * the address of another server's tunnel. Additional agents log instead.
+     */
+    private void broadcast(String message) {
+        if (name == null) {
+            plugin.broadcast(message);
+        } else {
+            log.info("[" + name + "] " + ChatColor.stripColor(message));
+        }
     }
 
     public int state() {
         return state.get();
     }
 
+    /**
+     * Stop accepting new clients and close the control session, existing connections keep
+     * running until they finish or the deadline passes, then they are closed.
+     *
+     * @return false if the manager was not online, in which case it is shut down instead
+     */
+    public boolean drain(int timeoutSeconds) {
+        drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(0, timeoutSeconds));
+
+        if (!state.compareAndSet(STATE_ONLINE, STATE_DRAINING)) {
+            var current = state.get();
+            if (current != STATE_OFFLINE && current != STATE_INVALID_AUTH && current != STATE_DRAINING) {
+                state.set(STATE_SHUTDOWN);
+            }
+            shutdown();
+            return false;
+        }
+
+        log.info("draining " + tracker.size() + " connections, deadline in " + timeoutSeconds + "s");
+        shutdown();
+        return true;
+    }
+
+    /**
+     * Wait for tracked connections to finish, closing what is left at the drain deadline.
+     */
+    private void finishDrain() {
+        while (tracker.size() > 0 && System.nanoTime() - drainDeadline < 0 && state.get() == STATE_DRAINING) {
+            pause(500);
+        }
+
+        int closed = tracker.closeAll();
+        if (closed > 0) {
+            log.info("drain deadline reached, closed " + closed + " connections");
+        } else {
+            log.info("drain complete");
+        }
+
+        state.set(STATE_OFFLINE);
+    }
+
+    /**
+     * Handle a message from the control feed.
+     *
+     * @param receivedAtNanos {@link System#nanoTime()} when the datagram was received
+     * @param replayTracker   scratch tracker when fed from a capture, runs admission against it but does not
+     *                        claim the client; null for live messages
+     */
+    void handleFeed(ControlFeedReader.ControlFeed feedMessage, long receivedAtNanos, PlayitConnectionTracker replayTracker) throws IOException {
+        if (!(feedMessage instanceof ControlFeedReader.NewClient newClient)) {
+            return;
+        }
+
+        /* replayed keys must not collide with or evict the keys of real connections */
+        var replay = replayTracker != null;
+        var connections = replay ? replayTracker : tracker;
+
+        var trace = new ConnectionTrace(newClient.peerAddr.toString(), receivedAtNanos);
+        trace.end(ConnectionTrace.Span.CONTROL_RECEIVE);
+
+        log.info("got new client: " + feedMessage);
+
+        var key = newClient.peerAddr + "-" + newClient.connectAddr;
+        /* ip rules first, a denied client never gets a claim socket or a tracker slot */
+        var rules = plugin.ipRules;
+        var admitted = (rules == null || rules.allows(newClient.peerAddr.ipBytes)) && connections.addConnection(key);
+        trace.end(ConnectionTrace.Span.ADMISSION);
+
+        var event = new NewClientEvent();
+        if (event.shouldCommit()) {
+            event.peerAddress = newClient.peerAddr.toString();
+            event.connectAddress = newClient.connectAddr.toString();
+            event.tunnelServerId = newClient.tunnelServerId;
+            event.dataCenterId = newClient.dataCenterId;
+            event.admitted = admitted;
+            event.commit();
+        }
+
+        if (!admitted) {
+            return;
+        }
+
+        if (state.get() == STATE_DRAINING) {
+            /* a replacement manager owns the control session, let it take new players */
+            connections.removeConnection(key);
+            log.info("draining, not claiming client " + newClient.peerAddr);
+            return;
+        }
+
+        var trueIp = new InetSocketAddress(InetAddress.getByAddress(newClient.peerAddr.ipBytes), Short.toUnsignedInt(newClient.peerAddr.portNumber));
+        var claimAddress = new InetSocketAddress(InetAddress.getByAddress(newClient.claimAddress.ipBytes), Short.toUnsignedInt(newClient.claimAddress.portNumber));
+        trace.end(ConnectionTrace.Span.DNS);
+
+        if (replay) {
+            /* captured claim tokens are stale, never connect to the tunnel server with them */
+            connections.removeConnection(key);
+            return;
+        }
+
+        log.info("starting tcp tunnel for client");
+
+        var tunnel = new PlayitTcpTunnel(
+                trueIp,
+                plugin.eventGroup,
+                plugin.trafficShaper,
+                tracker,
+                key,
+                fallbackBackend(),
+                backend == null,
+                backend == null ? plugin.statusCache : null,
+                plugin.handshakeFilter,
+                claimAddress,
+                newClient.claimToken,
+                plugin.server,
+                newClient.tunnelServerId,
+                plugin.settings,
+                plugin.socketTuner,
+                trace,
+                plugin.traces,
+                plugin.journal,
+                new PlayitConnectionJournal.Record(newClient)
+        );
+
+        if (backend != null) {
+            /* relays to another server, this server's tick rate says nothing about it */
+            tunnel.start();
+            return;
+        }
+
+        /* a refused client is never claimed, the tunnel server drops it when the claim token expires */
+        plugin.loadShedder.admit(trueIp.getAddress(), tunnel::start, () -> tracker.removeConnection(key));
+    }
+
+    private BackendTarget fallbackBackend() {
+        if (backend != null) {
+            return backend;
+        }
+
+        var configured = plugin.settings.fallbackBackend;
+        return configured != null ? configured : BackendTarget.tcp(new InetSocketAddress(Bukkit.getIp(), Bukkit.getPort()));
+    }
+
+    /**
+     * Start recording raw control datagrams to the file, replacing any capture in progress.
+     */
+    public void startCapture(File file) throws IOException {
+        var previous = recorder;
+        recorder = new ControlFeedRecorder(file);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * @return the stopped capture, or null if none was running
+     */
+    public ControlFeedRecorder stopCapture() throws IOException {
+        var current = recorder;
+        recorder = null;
+        if (current != null) {
+            current.close();
+        }
+        return current;
+    }
+
+    /**
+     * Replay a control feed capture through the admission path, blocks until done.
+     */
+    public ControlFeedReplayer.Result replay(File file, double speed) throws IOException {
+        var scratch = new PlayitConnectionTracker();
+        return new ControlFeedReplayer(file, speed).replay((feed, receivedAtNanos) -> handleFeed(feed, receivedAtNanos, scratch));
+    }
+
+    /**
+     * Run key setup against the API while the control channel is already running from
+     * the snapshot, then swap in the fresh keys and update the snapshot.
+     */
+    private void refreshSnapshot() {
+        var started = keys;
+        var check = new PlayitKeysSetup(started.secretKey, new AtomicInteger(PlayitKeysSetup.STATE_INIT), isGeyserPresent,
+                javaLocalPort, bedrockLocalPort, autoCreateBedrockTunnel, promptAdminForBedrock);
+
+        while (true) {
+            var current = state.get();
+            if (current == STATE_SHUTDOWN || current == STATE_OFFLINE || current == STATE_INVALID_AUTH) {
+                return;
+            }
+
+            try {
+                var fresh = check.progress();
+                if (fresh != null) {
+                    synchronized (keysLock) {
+                        keys = fresh;
+                    }
+                    PlayitAgentSnapshot.save(snapshotFile, fresh);
+
+                    if (fresh.tunnelAddress != null && !fresh.tunnelAddress.equals(started.tunnelAddress)) {
+                        log.info("tunnel address changed since snapshot: " + fresh.tunnelAddress);
+                        broadcast("tunnel address updated");
+                        broadcast(fresh.tunnelAddress);
+                    }
+
+                    log.info("agent snapshot verified");
+                    return;
+                }
+            } catch (IOException e) {
+                log.warning("failed to verify agent snapshot, retrying: " + e);
+
+                pause(3000);
+                continue;
+            }
+
+            var checkState = check.getState();
+            if (checkState == PlayitKeysSetup.STATE_MISSING_SECRET || checkState == PlayitKeysSetup.STATE_ERROR) {
+                log.severe("secret from agent snapshot was rejected by playit.gg, discarding snapshot");
+                PlayitAgentSnapshot.delete(snapshotFile);
+                rejectSnapshotSecret();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the control session started from a snapshot whose secret playit.gg rejected, the
+     * same outcome a rejected secret has on a fresh setup.
+     */
+    private void rejectSnapshotSecret() {
+        while (true) {
+            var current = state.get();
+            if (current == STATE_SHUTDOWN || current == STATE_OFFLINE || current == STATE_DRAINING || current == STATE_INVALID_AUTH) {
+                return;
+            }
+            if (state.compareAndSet(current, STATE_INVALID_AUTH)) {
+                break;
+            }
+        }
+
+        var task = inventoryTask;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Read the control feed through a primary and a standby session until this manager
+     * leaves the online state, throws once no session is left.
+     */
+    private void runWithStandby(PlayitControlChannel channel) throws IOException {
+        var sessions = new ControlFailover(channel, keys.secretKey, task -> plugin.executor.submitLoop("control-session" + (name == null ? "" : "-" + name), task));
+        failover = sessions;
+
+        try {
+            while (state.get() == STATE_ONLINE) {
+                sessions.setRecorder(recorder);
+
+                var received = sessions.poll(1000);
+                if (received != null) {
+                    handleFeed(received.feed, received.receivedAtNanos, null);
+                }
+            }
+        } finally {
+            failover = null;
+            sessions.close();
+        }
+    }
+
+    /**
+     * @return control session round trip time and request counters, with the standby session
+     * when control-standby is on, null if not connected
+     */
+    public String describeControl() {
+        var sessions = failover;
+        if (sessions != null) {
+            return sessions.toString();
+        }
+        var channel = control;
+        return channel == null ? null : channel.controlAddress().getHostAddress() + " (" + channel.requestStats() + ")";
+    }
+
+    /**
+     * Wait between retries. The executor interrupts its tasks on disable, so treat that as shutdown.
+     */
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            state.set(STATE_SHUTDOWN);
+        }
+    }
+
+    private void startTunnelInventory() {
+        var inventory = new PlayitTunnelInventory(new ApiClient(keys.secretKey));
+        inventory.addListener(this::tunnelsChanged);
+        tunnelInventory = inventory;
+        /* the timer only hands off, the API call runs on the plugin executor */
+        inventoryTask = Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+            try {
+                plugin.executor.submit("tunnel-inventory", inventory::refreshQuietly);
+            } catch (RejectedExecutionException e) {
+                log.warning("skipped tunnel inventory refresh: " + e);
+            }
+        }, 0, INVENTORY_REFRESH_TICKS);
+    }
+
+    /**
+     * Keep the advertised addresses in step with changes made on the website.
+     */
+    private void tunnelsChanged(List<PlayitTunnelInventory.Change> changes) {
+        var k = keys;
+        if (k == null) {
+            return;
+        }
+
+        PlayitKeysSetup.PlayitKeys updated = null;
+        for (var change : changes) {
+            var tunnel = change.tunnel();
+            boolean isJava = tunnel.displayAddress != null && tunnel.displayAddress.equals(k.tunnelAddress);
+            boolean isBedrock = tunnel.displayAddress != null && tunnel.displayAddress.equals(k.bedrockTunnelAddress);
+
+            if (change.type == PlayitTunnelInventory.ChangeType.ADDRESS_CHANGED) {
+                if (change.previous.displayAddress != null && change.previous.displayAddress.equals(k.tunnelAddress)) {
+                    updated = updated == null ? k.copy() : updated;
+                    updated.tunnelAddress = change.current.displayAddress;
+                    broadcast("tunnel address updated");
+                    broadcast(updated.tunnelAddress);
+                } else if (change.previous.displayAddress != null && change.previous.displayAddress.equals(k.bedrockTunnelAddress)) {
+                    updated = updated == null ? k.copy() : updated;
+                    updated.bedrockTunnelAddress = change.current.displayAddress;
+                }
+                continue;
+            }
+
+            if ((change.type == PlayitTunnelInventory.ChangeType.DISABLED || change.type == PlayitTunnelInventory.ChangeType.REMOVED) && (isJava || isBedrock)) {
+                var message = (isJava ? "java" : "bedrock") + " tunnel " + tunnel.displayAddress + " was " + change.type.name().toLowerCase() + " on playit.gg";
+                log.warning(message);
+
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    for (var player : plugin.server.getOnlinePlayers()) {
+                        if (player.isOp()) {
+                            player.sendMessage(ChatColor.RED + "WARNING: " + ChatColor.RESET + message);
+                        }
+                    }
+                });
+            }
+        }
+
+        if (updated != null) {
+            synchronized (keysLock) {
+                if (keys != k) {
+                    /* replaced by a snapshot check meanwhile, the next inventory refresh compares against those */
+                    return;
+                }
+                keys = updated;
+            }
+            PlayitAgentSnapshot.save(snapshotFile, updated);
+        }
+    }
+
     @Override
     public void run() {
         /* make sure we don't run two instances */
@@ -100,7 +553,14 @@ public class PlayitManager implements Runnable {
             return;
         }
 
-        while (state.get() != STATE_SHUTDOWN) {
+        var cached = PlayitAgentSnapshot.load(snapshotFile, configuredSecret);
+        if (cached != null) {
+            log.info("starting from saved agent snapshot, re-checking secret and tunnels in background");
+            keys = cached;
+            plugin.executor.submit("snapshot-refresh", this::refreshSnapshot);
+        }
+
+        while (keys == null && state.get() != STATE_SHUTDOWN) {
             try {
                 keys = setup.progress();
 
@@ -111,11 +571,7 @@ public class PlayitManager implements Runnable {
             } catch (IOException e) {
                 log.severe("got error during setup: " + e);
 
-                try {
-                    Thread.sleep(3000);
-                } catch (InterruptedException ignore) {
-                }
-
+                pause(3000);
                 continue;
             }
 
@@ -124,17 +580,14 @@ public class PlayitManager implements Runnable {
                 if (code != null) {
                     for (var player : plugin.server.getOnlinePlayers()) {
                         if (player.isOp()) {
-                            player.sendMessage("Visit " + ChatColor.RED + "https://playit.gg/mc/" + code + ChatColor.RESET + " to setup playit");
+                            player.sendMessage("Visit " + ChatColor.RED + "https://playit.gg/mc/" + code + ChatColor.RESET + " to setup playit" + (name == null ? "" : " agent " + name));
                         } else {
                             player.sendMessage("Check server logs to get playit.gg claim link to setup tunnel (or be a Server Operator)");
                         }
                     }
                 }
 
-                try {
-                    Thread.sleep(3000);
-                } catch (InterruptedException ignore) {
-                }
+                pause(3000);
             }
         }
 
@@ -143,12 +596,16 @@ public class PlayitManager implements Runnable {
             return;
         }
 
-        plugin.getConfig().set(PlayitBukkit.CFG_AGENT_SECRET_KEY, keys.secretKey);
+        if (cached == null) {
+            PlayitAgentSnapshot.save(snapshotFile, keys);
+        }
+
+        plugin.getConfig().set(secretConfigPath, keys.secretKey);
         plugin.saveConfig();
 
         if (keys.isGuest) {
-            plugin.broadcast(ChatColor.RED + "WARNING: " + ChatColor.RESET + " plugin is running with a guest account");
-            plugin.broadcast("see server console for setup URL");
+            broadcast(ChatColor.RED + "WARNING: " + ChatColor.RESET + " plugin is running with a guest account");
+            broadcast("see server console for setup URL");
 
             var api = new ApiClient(keys.secretKey);
 
@@ -171,47 +628,44 @@ public class PlayitManager implements Runnable {
                 log.severe("failed to generate web session key: " + e);
             }
         } else if (!keys.isEmailVerified) {
-            plugin.broadcast(ChatColor.RED + "WARNING: " + ChatColor.RESET + "email associated with playit.gg account is not verified");
+            broadcast(ChatColor.RED + "WARNING: " + ChatColor.RESET + "email associated with playit.gg account is not verified");
         }
 
-        plugin.broadcast("tunnel setup");
-        plugin.broadcast(keys.tunnelAddress);
+        broadcast("tunnel setup");
+        broadcast(keys.tunnelAddress);
 
         if (state.get() == STATE_SHUTDOWN) {
             return;
         }
 
-        state.set(STATE_CONNECTING);
+        /* the snapshot check may have rejected the secret already */
+        if (state.updateAndGet(current -> current == STATE_SHUTDOWN || current == STATE_INVALID_AUTH ? current : STATE_CONNECTING) != STATE_CONNECTING) {
+            return;
+        }
+        startTunnelInventory();
 
         while (state.get() == STATE_CONNECTING) {
             try (PlayitControlChannel channel = PlayitControlChannel.setup(keys.secretKey)) {
-                state.compareAndSet(STATE_CONNECTING, STATE_ONLINE);
+                if (state.compareAndSet(STATE_CONNECTING, STATE_ONLINE)) {
+                    var handover = onOnline;
+                    onOnline = null;
+                    if (handover != null) {
+                        handover.run();
+                    }
+                }
+
+                if (plugin.settings.controlStandby) {
+                    runWithStandby(channel);
+                }
+
+                control = channel;
 
                 while (state.get() == STATE_ONLINE) {
+                    channel.setRecorder(recorder);
+
                     var messageOpt = channel.update();
                     if (messageOpt.isPresent()) {
-                        var feedMessage = messageOpt.get();
-
-                        if (feedMessage instanceof ControlFeedReader.NewClient newClient) {
-                            log.info("got new client: " + feedMessage);
-
-                            var key = newClient.peerAddr + "-" + newClient.connectAddr;
-                            if (tracker.addConnection(key)) {
-                                log.info("starting tcp tunnel for client");
-
-                                new PlayitTcpTunnel(
-                                        new InetSocketAddress(InetAddress.getByAddress(newClient.peerAddr.ipBytes), Short.toUnsignedInt(newClient.peerAddr.portNumber)),
-                                        plugin.eventGroup,
-                                        tracker,
-                                        key,
-                                        new InetSocketAddress(Bukkit.getIp(), Bukkit.getPort()),
-                                        new InetSocketAddress(InetAddress.getByAddress(newClient.claimAddress.ipBytes), Short.toUnsignedInt(newClient.claimAddress.portNumber)),
-                                        newClient.claimToken,
-                                        plugin.server,
-                                        connectionTimeoutSeconds
-                                ).start();
-                            }
-                        }
+                        handleFeed(messageOpt.get(), channel.lastReceiveNanos(), null);
                     }
                 }
             } catch (IOException e) {
@@ -222,11 +676,9 @@ public class PlayitManager implements Runnable {
                     state.set(STATE_INVALID_AUTH);
                 }
 
-                try {
-                    Thread.sleep(5_000);
-                } catch (InterruptedException ignore) {
-                }
+                pause(5_000);
             } finally {
+                control = null;
                 if (state.compareAndSet(STATE_SHUTDOWN, STATE_OFFLINE)) {
                     log.info("control channel shutdown");
                 } else if (state.compareAndSet(STATE_ERROR_WAITING, STATE_CONNECTING)) {
@@ -242,5 +694,10 @@ public class PlayitManager implements Runnable {
                 }
             }
         }
+
+        if (state.get() == STATE_DRAINING) {
+            log.info("control channel closed for drain");
+            finishDrain();
+        }
     }
 }
@@ -0,0 +1,174 @@
+package gg.playit.minecraft;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static gg.playit.minecraft.PlayitBukkit.*;
+
+/**
+ * Settings read from config.yml that can change while the plugin is running. Components
+ * hold a reference to this object and read the fields when they need them, so a reload
+ * reaches open connections and the running manager without rebuilding either.
+ * <p>
+ * Invalid values are reported and the previous value is kept.
+ */
+public class PlayitSettings {
+    static Logger log = Logger.getLogger(PlayitSettings.class.getName());
+
+    /* strong reference, java.util.logging only keeps weak references to loggers */
+    private static final Logger pluginLogger = Logger.getLogger("gg.playit");
+
+    public volatile int connectionTimeoutSeconds = 30;
+    public volatile int claimTimeoutSeconds = 10;
+    public volatile int handshakeTimeoutSeconds = 15;
+    public volatile int relayIdleTimeoutSeconds = 60;
+    public volatile int drainTimeoutSeconds = 30;
+    public volatile SocketProfile socketProfile = SocketProfile.LATENCY;
+
+    public volatile long trafficGlobalReadLimit;
+    public volatile long trafficGlobalWriteLimit;
+    public volatile long trafficChannelReadLimit;
+    public volatile long trafficChannelWriteLimit;
+
+    /* only used when setting up keys or creating tunnels */
+    public volatile int javaLocalPort = 25565;
+    public volatile int bedrockLocalPort = 19132;
+    public volatile boolean autoCreateBedrockTunnel = false;
+    public volatile boolean promptAdminForBedrock = true;
+
+    public volatile boolean statusCacheEnabled = false;
+    public volatile int statusCacheRefreshSeconds = 5;
+
+    public volatile boolean handshakeFilterEnabled = false;
+    public volatile int handshakeLimitPerIp = 10;
+    public volatile int handshakeLimitPerPrefix = 40;
+    public volatile int handshakeLimitWindowSeconds = 10;
+
+    public volatile boolean lagSheddingEnabled = false;
+    public volatile double lagDeferTps = 17;
+    public volatile double lagRefuseTps = 10;
+    public volatile int lagAdmitPerSecond = 2;
+    public volatile int lagMaxDeferMillis = 3000;
+
+    /* takes effect on the next control connection */
+    public volatile boolean controlStandby = false;
+
+    /* null means connect to this server's own ip:port over TCP */
+    public volatile BackendTarget fallbackBackend;
+    /* null when no routes are configured */
+    public volatile BackendRouter routes;
+
+    public volatile Level logLevel = Level.INFO;
+
+    /**
+     * Validate and apply the values in config.
+     *
+     * @param geyserPort bedrock port detected from Geyser's config, used when bedrock_local_port is left at the default, 0 if none
+     * @return a message for each invalid value
+     */
+    public List<String> apply(ConfigurationSection config, int geyserPort) {
+        var problems = new ArrayList<String>();
+
+        /* 0 in the config meant "use the default" before this was validated */
+        int connectionTimeout = config.getInt(CFG_CONNECTION_TIMEOUT_SECONDS, 30);
+        connectionTimeoutSeconds = checkRange(problems, CFG_CONNECTION_TIMEOUT_SECONDS, connectionTimeout == 0 ? 30 : connectionTimeout, 1, 3600, connectionTimeoutSeconds);
+        claimTimeoutSeconds = checkRange(problems, CFG_CLAIM_TIMEOUT_SECONDS, config.getInt(CFG_CLAIM_TIMEOUT_SECONDS, 10), 0, 3600, claimTimeoutSeconds);
+        handshakeTimeoutSeconds = checkRange(problems, CFG_HANDSHAKE_TIMEOUT_SECONDS, config.getInt(CFG_HANDSHAKE_TIMEOUT_SECONDS, 15), 0, 3600, handshakeTimeoutSeconds);
+        relayIdleTimeoutSeconds = checkRange(problems, CFG_RELAY_IDLE_TIMEOUT_SECONDS, config.getInt(CFG_RELAY_IDLE_TIMEOUT_SECONDS, 60), 0, 86400, relayIdleTimeoutSeconds);
+        drainTimeoutSeconds = checkRange(problems, CFG_DRAIN_TIMEOUT_SECONDS, config.getInt(CFG_DRAIN_TIMEOUT_SECONDS, 30), 0, 3600, drainTimeoutSeconds);
+
+        var profileName = config.getString(CFG_SOCKET_PROFILE, SocketProfile.LATENCY.configName);
+        var profile = SocketProfile.fromConfig(profileName);
+        if (profile == null) {
+            problems.add("unknown " + CFG_SOCKET_PROFILE + " \"" + profileName + "\", keeping " + socketProfile.configName);
+        } else {
+            socketProfile = profile;
+        }
+
+        trafficGlobalReadLimit = checkLimit(problems, config, CFG_TRAFFIC_GLOBAL_READ_LIMIT, trafficGlobalReadLimit);
+        trafficGlobalWriteLimit = checkLimit(problems, config, CFG_TRAFFIC_GLOBAL_WRITE_LIMIT, trafficGlobalWriteLimit);
+        trafficChannelReadLimit = checkLimit(problems, config, CFG_TRAFFIC_CHANNEL_READ_LIMIT, trafficChannelReadLimit);
+        trafficChannelWriteLimit = checkLimit(problems, config, CFG_TRAFFIC_CHANNEL_WRITE_LIMIT, trafficChannelWriteLimit);
+
+        javaLocalPort = checkRange(problems, CFG_JAVA_LOCAL_PORT, config.getInt(CFG_JAVA_LOCAL_PORT, 25565), 1, 65535, javaLocalPort);
+        int bedrockPort = config.getInt(CFG_BEDROCK_LOCAL_PORT, 19132);
+        // If Geyser is present and config doesn't override, use Geyser's detected port
+        if (geyserPort != 0 && bedrockPort == 19132) {
+            bedrockPort = geyserPort;
+        }
+        bedrockLocalPort = checkRange(problems, CFG_BEDROCK_LOCAL_PORT, bedrockPort, 1, 65535, bedrockLocalPort);
+        autoCreateBedrockTunnel = config.getBoolean(CFG_AUTO_CREATE_BEDROCK_TUNNEL, false);
+        promptAdminForBedrock = config.getBoolean(CFG_PROMPT_ADMIN_FOR_BEDROCK, true);
+
+        statusCacheEnabled = config.getBoolean(CFG_STATUS_CACHE, false);
+        statusCacheRefreshSeconds = checkRange(problems, CFG_STATUS_CACHE_REFRESH_SECONDS, config.getInt(CFG_STATUS_CACHE_REFRESH_SECONDS, 5), 1, 300, statusCacheRefreshSeconds);
+
+        handshakeFilterEnabled = config.getBoolean(CFG_HANDSHAKE_FILTER, false);
+        handshakeLimitPerIp = checkRange(problems, CFG_HANDSHAKE_LIMIT_PER_IP, config.getInt(CFG_HANDSHAKE_LIMIT_PER_IP, 10), 0, 100000, handshakeLimitPerIp);
+        handshakeLimitPerPrefix = checkRange(problems, CFG_HANDSHAKE_LIMIT_PER_PREFIX, config.getInt(CFG_HANDSHAKE_LIMIT_PER_PREFIX, 40), 0, 100000, handshakeLimitPerPrefix);
+        handshakeLimitWindowSeconds = checkRange(problems, CFG_HANDSHAKE_LIMIT_WINDOW_SECONDS, config.getInt(CFG_HANDSHAKE_LIMIT_WINDOW_SECONDS, 10), 1, 3600, handshakeLimitWindowSeconds);
+
+        lagSheddingEnabled = config.getBoolean(CFG_LAG_SHEDDING, false);
+        lagDeferTps = checkRange(problems, CFG_LAG_DEFER_TPS, config.getDouble(CFG_LAG_DEFER_TPS, 17), 0, 20, lagDeferTps);
+        lagRefuseTps = checkRange(problems, CFG_LAG_REFUSE_TPS, config.getDouble(CFG_LAG_REFUSE_TPS, 10), 0, 20, lagRefuseTps);
+        if (lagRefuseTps > lagDeferTps) {
+            problems.add(CFG_LAG_REFUSE_TPS + " is above " + CFG_LAG_DEFER_TPS + ", clients are refused without waiting first");
+        }
+        lagAdmitPerSecond = checkRange(problems, CFG_LAG_ADMIT_PER_SECOND, config.getInt(CFG_LAG_ADMIT_PER_SECOND, 2), 1, 1000, lagAdmitPerSecond);
+        lagMaxDeferMillis = checkRange(problems, CFG_LAG_MAX_DEFER_MILLIS, config.getInt(CFG_LAG_MAX_DEFER_MILLIS, 3000), 0, 10000, lagMaxDeferMillis);
+
+        controlStandby = config.getBoolean(CFG_CONTROL_STANDBY, false);
+
+        var backendName = config.getString(CFG_FALLBACK_BACKEND, "tcp");
+        if (backendName.equalsIgnoreCase("tcp")) {
+            fallbackBackend = null;
+        } else {
+            try {
+                fallbackBackend = BackendTarget.parse(backendName);
+            } catch (IllegalArgumentException e) {
+                problems.add(CFG_FALLBACK_BACKEND + ": " + e.getMessage() + ", keeping " + (fallbackBackend == null ? "tcp" : fallbackBackend));
+            }
+        }
+
+        routes = BackendRouter.parse(config.getMapList(CFG_ROUTES), problems);
+
+        var levelName = config.getString(CFG_LOG_LEVEL, "INFO");
+        try {
+            logLevel = Level.parse(levelName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            problems.add("unknown " + CFG_LOG_LEVEL + " \"" + levelName + "\", keeping " + logLevel.getName());
+        }
+        pluginLogger.setLevel(logLevel);
+
+        return problems;
+    }
+
+    private static int checkRange(List<String> problems, String key, int value, int min, int max, int current) {
+        if (value < min || value > max) {
+            problems.add(key + " must be between " + min + " and " + max + ", got " + value + ", keeping " + current);
+            return current;
+        }
+        return value;
+    }
+
+    private static double checkRange(List<String> problems, String key, double value, double min, double max, double current) {
+        if (value < min || value > max) {
+            problems.add(key + " must be between " + min + " and " + max + ", got " + value + ", keeping " + current);
+            return current;
+        }
+        return value;
+    }
+
+    private static long checkLimit(List<String> problems, ConfigurationSection config, String key, long current) {
+        long value = config.getLong(key, 0);
+        if (value < 0) {
+            problems.add(key + " must be 0 (unlimited) or a positive number of bytes per second, got " + value + ", keeping " + current);
+            return current;
+        }
+        return value;
+    }
+}
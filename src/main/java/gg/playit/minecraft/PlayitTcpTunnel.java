@@ -1,7 +1,13 @@
 package gg.playit.minecraft;
 
+import gg.playit.jfr.ClaimConfirmEvent;
+import gg.playit.jfr.ClaimConnectEvent;
+import gg.playit.jfr.ConnectionClosedEvent;
+import gg.playit.jfr.FallbackConnectEvent;
+import gg.playit.jfr.PipelineInjectEvent;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
@@ -10,6 +16,7 @@ import io.netty.handler.timeout.ReadTimeoutHandler;
 import org.bukkit.Server;
 
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.logging.Logger;
 
 public class PlayitTcpTunnel {
@@ -17,67 +24,132 @@ public class PlayitTcpTunnel {
 
     private final InetSocketAddress trueIp;
     private final EventLoopGroup group;
+    private final ChannelHandler trafficShaper;
     private final String connectionKey;
     private final PlayitConnectionTracker tracker;
-    private final InetSocketAddress minecraftServerAddress;
+    private final BackendTarget backend;
+    private final boolean injectIntoServer;
+    private final JavaStatusCache statusCache;
+    private final HandshakeFilter handshakeFilter;
     private final InetSocketAddress tunnelClaimAddress;
     private final byte[] tunnelClaimToken;
     private final Server server;
-
-    private final int connectionTimeoutSeconds;
+    private final long tunnelServerId;
+    private final PlayitSettings settings;
+    private final SocketAutoTuner autoTuner;
+    private final ConnectionTrace trace;
+    private final ConnectionTraceBuffer traces;
+    private final PlayitConnectionJournal journal;
+    private final PlayitConnectionJournal.Record journalRecord;
 
     public PlayitTcpTunnel(
             InetSocketAddress trueIp,
             EventLoopGroup group,
+            ChannelHandler trafficShaper,
             PlayitConnectionTracker tracker,
             String connectionKey,
-            InetSocketAddress minecraftServerAddress,
+            BackendTarget backend,
+            boolean injectIntoServer,
+            JavaStatusCache statusCache,
+            HandshakeFilter handshakeFilter,
             InetSocketAddress tunnelClaimAddress,
             byte[] tunnelClaimToken,
             Server server,
-            int connectionTimeoutSeconds
+            long tunnelServerId,
+            PlayitSettings settings,
+            SocketAutoTuner autoTuner,
+            ConnectionTrace trace,
+            ConnectionTraceBuffer traces,
+            PlayitConnectionJournal journal,
+            PlayitConnectionJournal.Record journalRecord
     ) {
         this.trueIp = trueIp;
         this.group = group;
+        this.trafficShaper = trafficShaper;
         this.tracker = tracker;
         this.connectionKey = connectionKey;
-        this.minecraftServerAddress = minecraftServerAddress;
+        this.backend = backend;
+        this.injectIntoServer = injectIntoServer;
+        this.statusCache = statusCache;
+        this.handshakeFilter = handshakeFilter;
         this.tunnelClaimAddress = tunnelClaimAddress;
         this.tunnelClaimToken = tunnelClaimToken;
         this.server = server;
-        this.connectionTimeoutSeconds = connectionTimeoutSeconds;
+        this.tunnelServerId = tunnelServerId;
+        this.settings = settings;
+        this.autoTuner = autoTuner;
+        this.trace = trace;
+        this.traces = traces;
+        this.journal = journal;
+        this.journalRecord = journalRecord;
     }
 
     private Channel minecraftChannel;
     private Channel tunnelChannel;
 
+    private final ConnectionStatsHandler stats = new ConnectionStatsHandler();
+    private boolean injected;
+    private ClaimConfirmEvent claimConfirmEvent;
+    private IdleReaper.Watch timeout;
+    private boolean relaying;
+    private boolean traceDone;
+
     public void start() {
         Bootstrap clientBootstrap = new Bootstrap();
         clientBootstrap.group(group);
         clientBootstrap.channel(NioSocketChannel.class);
         clientBootstrap.remoteAddress(this.tunnelClaimAddress);
+        settings.socketProfile.apply(clientBootstrap, autoTuner.bufferSize(tunnelServerId));
 
         clientBootstrap.handler(new ChannelInitializer<SocketChannel>() {
             protected void initChannel(SocketChannel socketChannel) {
                 tunnelChannel = socketChannel;
-                socketChannel.pipeline().addLast(new TunnelConnectionHandler());
+                tracker.attach(connectionKey, socketChannel);
+                socketChannel.pipeline()
+                        .addLast(ConnectionStatsHandler.NAME, stats)
+                        .addLast("playit_shaping", trafficShaper)
+                        .addLast(new TunnelConnectionHandler());
+                socketChannel.closeFuture().addListener(f -> closed());
+                startTimeout("claim", settings.claimTimeoutSeconds, false, PlayitConnectionJournal.CloseReason.CLAIM_TIMEOUT);
             }
         });
 
         log.info("start connection to " + tunnelClaimAddress + " to claim client");
+        var connectEvent = new ClaimConnectEvent();
+        connectEvent.begin();
+        var connectStart = System.nanoTime();
+
         clientBootstrap.connect().addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                autoTuner.recordConnectTime(tunnelServerId, System.nanoTime() - connectStart);
+                trace.end(ConnectionTrace.Span.CLAIM_CONNECT);
+            }
+
+            connectEvent.end();
+            if (connectEvent.shouldCommit()) {
+                connectEvent.claimAddress = tunnelClaimAddress.toString();
+                connectEvent.success = future.isSuccess();
+                connectEvent.commit();
+            }
+
             if (!future.isSuccess()) {
                 log.warning("failed to establish connection to tunnel claim" + tunnelClaimAddress);
+                journalRecord.closeReason = PlayitConnectionJournal.CloseReason.CLAIM_FAILED;
                 disconnected();
                 return;
             }
 
             log.info("connected to tunnel server, sending claim token");
 
+            claimConfirmEvent = new ClaimConfirmEvent();
+            claimConfirmEvent.begin();
+
             future.channel().writeAndFlush(Unpooled.wrappedBuffer(tunnelClaimToken)).addListener(f -> {
                 if (!f.isSuccess()) {
                     log.warning("failed to send claim token");
+                    journalRecord.closeReason = PlayitConnectionJournal.CloseReason.CLAIM_FAILED;
                 } else {
+                    trace.end(ConnectionTrace.Span.TOKEN_WRITE);
                     log.info("claim token sent");
                 }
             });
@@ -88,6 +160,66 @@ public class PlayitTcpTunnel {
         this.tracker.removeConnection(connectionKey);
     }
 
+    /**
+     * Replace the current timeout, must be called from the tunnel channel's event loop.
+     */
+    private void startTimeout(String phase, int timeoutSeconds, boolean idle, PlayitConnectionJournal.CloseReason reason) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        timeout = IdleReaper.of(tunnelChannel.eventLoop()).watch(phase, timeoutSeconds, idle, () -> {
+            log.info(phase + " timeout after " + timeoutSeconds + "s, closing connection for " + trueIp);
+            journalRecord.closeReason = reason;
+            if (minecraftChannel != null) {
+                minecraftChannel.close();
+            }
+            tunnelChannel.close();
+            disconnected();
+        });
+    }
+
+    private void traceFinished(boolean complete) {
+        if (traceDone) {
+            return;
+        }
+        traceDone = true;
+
+        trace.finish(complete);
+        traces.add(trace);
+    }
+
+    private void closed() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+
+        disconnected();
+
+        traceFinished(false);
+
+        autoTuner.recordPeakThroughput(tunnelServerId, stats.peakBytesPerSecond);
+
+        if (journal != null) {
+            journalRecord.closedAt = System.currentTimeMillis();
+            journalRecord.injected = injected;
+            journalRecord.bytesFromTunnel = stats.bytesRead;
+            journalRecord.bytesToTunnel = stats.bytesWritten;
+            journal.append(journalRecord);
+        }
+
+        var event = new ConnectionClosedEvent();
+        if (event.shouldCommit()) {
+            event.peerAddress = trueIp.toString();
+            event.injected = injected;
+            event.bytesFromTunnel = stats.bytesRead;
+            event.bytesToTunnel = stats.bytesWritten;
+            event.lifetime = System.nanoTime() - stats.createdAt;
+            event.commit();
+        }
+    }
+
     @ChannelHandler.Sharable
     private class TunnelConnectionHandler extends SimpleChannelInboundHandler<ByteBuf> {
         TunnelConnectionHandler() {
@@ -95,6 +227,9 @@ public class PlayitTcpTunnel {
         }
 
         private int confirmBytesRemaining = 8;
+        /* bytes received while waiting for a complete handshake */
+        private ByteBuf pending;
+        private long reflectionNanos;
 
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, ByteBuf byteBuf) throws Exception {
@@ -111,61 +246,48 @@ public class PlayitTcpTunnel {
                 confirmBytesRemaining = 0;
 
                 log.info("connection to tunnel server has been established");
+                trace.end(ConnectionTrace.Span.CONFIRM_READ);
 
-                if (addChannelToMinecraftServer()) {
-                    log.info("added channel to minecraft server");
-                    return;
-                }
-
-                var minecraftClient = new Bootstrap();
-                minecraftClient.group(group);
-                minecraftClient.option(ChannelOption.TCP_NODELAY, true);
-                minecraftClient.channel(NioSocketChannel.class);
-                minecraftClient.remoteAddress(minecraftServerAddress);
-
-                minecraftClient.handler(new ChannelInitializer<SocketChannel>() {
-                    protected void initChannel(SocketChannel socketChannel) {
-                        minecraftChannel = socketChannel;
-                        socketChannel.pipeline().addLast(new MinecraftConnectionHandler());
-                    }
-                });
-
-                log.info("connecting to minecraft server at " + minecraftServerAddress);
-                minecraftClient.connect().addListener((ChannelFutureListener) future -> {
-                    if (!future.isSuccess()) {
-                        log.warning("failed to connect to local minecraft server");
-                        ctx.disconnect();
-                        disconnected();
-                        return;
+                if (claimConfirmEvent != null) {
+                    claimConfirmEvent.end();
+                    if (claimConfirmEvent.shouldCommit()) {
+                        claimConfirmEvent.claimAddress = tunnelClaimAddress.toString();
+                        claimConfirmEvent.commit();
                     }
+                    claimConfirmEvent = null;
+                }
 
-                    log.info("connected to local minecraft server");
+                if (settings.routes != null || statusCacheActive() || settings.handshakeFilterEnabled) {
+                    /* hold the bytes until the handshake says where the connection goes */
+                    startTimeout("handshake", settings.handshakeTimeoutSeconds, false, PlayitConnectionJournal.CloseReason.HANDSHAKE_TIMEOUT);
+                    pending = byteBuf;
+                    routeOnHandshake(ctx);
+                    return;
+                }
 
-                    if (byteBuf.readableBytes() == 0) {
-                        byteBuf.release();
-                        ctx.read();
-                    } else {
-                        future.channel().writeAndFlush(byteBuf).addListener(f -> {
-                            if (!f.isSuccess()) {
-                                log.warning("failed to send data to minecraft server");
-                                future.channel().disconnect();
-                                ctx.disconnect();
-                                disconnected();
-                                return;
-                            }
-
-                            ctx.read();
-                        });
-                    }
-                });
+                connectBackend(ctx, byteBuf, null);
+                return;
+            }
 
+            if (pending != null) {
+                /* one composite for the whole handshake, wrapping per read would nest it a level per byte */
+                if (!(pending instanceof CompositeByteBuf)) {
+                    pending = ctx.alloc().compositeBuffer().addComponent(true, pending);
+                }
+                ((CompositeByteBuf) pending).addComponent(true, byteBuf);
+                routeOnHandshake(ctx);
                 return;
             }
 
             /* proxy data */
+            if (timeout != null) {
+                timeout.touch();
+            }
+
             minecraftChannel.writeAndFlush(byteBuf).addListener(f -> {
                 if (!f.isSuccess()) {
                     log.warning("failed to send data to minecraft server");
+                    journalRecord.closeReason = PlayitConnectionJournal.CloseReason.RELAY_ERROR;
                     minecraftChannel.disconnect();
                     tunnelChannel.disconnect();
                     disconnected();
@@ -176,7 +298,207 @@ public class PlayitTcpTunnel {
             });
         }
 
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            /* bytes that fail to decode while the handshake is held are the client's fault */
+            log.warning("closing connection for " + trueIp + " after error: " + cause);
+            journalRecord.closeReason = pending != null ? PlayitConnectionJournal.CloseReason.FILTERED : PlayitConnectionJournal.CloseReason.RELAY_ERROR;
+            if (minecraftChannel != null) {
+                minecraftChannel.close();
+            }
+            ctx.close();
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            if (pending != null) {
+                pending.release();
+                pending = null;
+            }
+        }
+
+        private boolean statusCacheActive() {
+            return statusCache != null && settings.statusCacheEnabled && statusCache.isReady();
+        }
+
+        private void routeOnHandshake(ChannelHandlerContext ctx) {
+            var handshake = MinecraftHandshake.peek(pending);
+            if (handshake == MinecraftHandshake.INCOMPLETE) {
+                ctx.read();
+                return;
+            }
+
+            var buffered = pending;
+            pending = null;
+
+            if (settings.handshakeFilterEnabled) {
+                boolean legacyPing = handshake == null && buffered.isReadable() && buffered.getByte(buffered.readerIndex()) == (byte) 0xfe;
+                var verdict = handshakeFilter.check(handshake, legacyPing, trueIp.getAddress());
+                if (verdict != HandshakeFilter.Verdict.PASS) {
+                    /* fine, not info, a flood would otherwise flood the log too */
+                    log.fine("dropping connection from " + trueIp + ": " + verdict);
+                    journalRecord.closeReason = PlayitConnectionJournal.CloseReason.FILTERED;
+                    buffered.release();
+                    ctx.close();
+                    return;
+                }
+            }
+
+            var routes = settings.routes;
+            var route = routes == null ? null : routes.select(handshake == null ? null : handshake.hostname(), journalRecord.connectAddr.toString());
+            if (route != null) {
+                log.info("routing " + trueIp + " to " + route.match);
+                connectBackend(ctx, buffered, route);
+                return;
+            }
+
+            if (handshake == null || handshake.nextState != MinecraftHandshake.STATE_STATUS || !statusCacheActive()) {
+                connectBackend(ctx, buffered, null);
+                return;
+            }
+
+            /* the status exchange never reaches the server, swap this handler for the cached responder */
+            buffered.skipBytes(handshake.length);
+            ctx.pipeline().replace(this, JavaStatusCache.HANDLER_NAME, statusCache.new Responder(handshake.protocolVersion));
+            if (buffered.isReadable()) {
+                ctx.pipeline().context(JavaStatusCache.HANDLER_NAME).fireChannelRead(buffered);
+            } else {
+                buffered.release();
+            }
+        }
+
+        /**
+         * @param route backends picked by hostname, null for this agent's own server
+         */
+        private void connectBackend(ChannelHandlerContext ctx, ByteBuf byteBuf, BackendRouter.Route route) {
+            var injectEvent = new PipelineInjectEvent();
+            injectEvent.begin();
+            /* backends other than this server can only be reached through the relay */
+            injected = route == null && injectIntoServer && addChannelToMinecraftServer();
+            injectEvent.end();
+            trace.end(ConnectionTrace.Span.INJECTION);
+
+            /* next write to the tunnel is the server answering the player */
+            stats.onNextWrite = () -> {
+                trace.end(ConnectionTrace.Span.FIRST_BACKEND_BYTE);
+                traceFinished(true);
+            };
+
+            if (injectEvent.shouldCommit()) {
+                injectEvent.peerAddress = trueIp.toString();
+                injectEvent.success = injected;
+                injectEvent.reflectionTime = reflectionNanos;
+                injectEvent.commit();
+            }
+
+            if (injected) {
+                /* the injected pipeline has its own ReadTimeoutHandler */
+                if (timeout != null) {
+                    timeout.cancel();
+                    timeout = null;
+                }
+
+                log.info("added channel to minecraft server");
+                if (byteBuf.isReadable()) {
+                    /* bytes read before injection, pass them on without counting them again */
+                    tunnelChannel.pipeline().context(ConnectionStatsHandler.NAME).fireChannelRead(byteBuf);
+                } else {
+                    byteBuf.release();
+                }
+                return;
+            }
+
+            startTimeout("handshake", settings.handshakeTimeoutSeconds, false, PlayitConnectionJournal.CloseReason.HANDSHAKE_TIMEOUT);
+
+            var candidates = route != null ? route.candidates() : List.of(new BackendRouter.Backend(backend));
+            connectRelay(ctx, byteBuf, candidates, 0, route != null);
+        }
+
+        /**
+         * Connect to the candidate at attempt, moving on to the next one if it fails.
+         *
+         * @param trackHealth mark failed candidates down, only for configured routes
+         */
+        private void connectRelay(ChannelHandlerContext ctx, ByteBuf byteBuf, List<BackendRouter.Backend> candidates, int attempt, boolean trackHealth) {
+            var candidate = candidates.get(attempt);
+
+            /* pin the minecraft channel to the tunnel channel's event loop so relaying never crosses threads,
+             * except for unix sockets which need the epoll transport */
+            var minecraftClient = candidate.bootstrap(ctx.channel().eventLoop(), settings.socketProfile);
+
+            minecraftClient.handler(new ChannelInitializer<Channel>() {
+                protected void initChannel(Channel channel) {
+                    minecraftChannel = channel;
+                    channel.pipeline().addLast(new MinecraftConnectionHandler());
+                }
+            });
+
+            log.info("connecting to minecraft server at " + candidate.target);
+            var fallbackEvent = new FallbackConnectEvent();
+            fallbackEvent.begin();
+
+            minecraftClient.connect().addListener((ChannelFutureListener) future -> {
+                fallbackEvent.end();
+                if (fallbackEvent.shouldCommit()) {
+                    fallbackEvent.backendAddress = candidate.target.toString();
+                    fallbackEvent.success = future.isSuccess();
+                    fallbackEvent.commit();
+                }
+
+                if (!future.isSuccess()) {
+                    log.warning("failed to connect to minecraft server at " + candidate.target);
+                    if (trackHealth) {
+                        candidate.markFailed();
+                    }
+
+                    if (attempt + 1 < candidates.size() && tunnelChannel.isActive()) {
+                        connectRelay(ctx, byteBuf, candidates, attempt + 1, trackHealth);
+                        return;
+                    }
+
+                    journalRecord.closeReason = PlayitConnectionJournal.CloseReason.BACKEND_FAILED;
+                    byteBuf.release();
+                    ctx.disconnect();
+                    disconnected();
+                    return;
+                }
+
+                log.info("connected to minecraft server at " + candidate.target);
+                trace.end(ConnectionTrace.Span.BACKEND_CONNECT);
+
+                if (byteBuf.readableBytes() == 0) {
+                    byteBuf.release();
+                    ctx.read();
+                } else {
+                    future.channel().writeAndFlush(byteBuf).addListener(f -> {
+                        if (!f.isSuccess()) {
+                            log.warning("failed to send data to minecraft server");
+                            journalRecord.closeReason = PlayitConnectionJournal.CloseReason.RELAY_ERROR;
+                            future.channel().disconnect();
+                            ctx.disconnect();
+                            disconnected();
+                            return;
+                        }
+
+                        ctx.read();
+                    });
+                }
+            });
+        }
+
         private boolean addChannelToMinecraftServer() {
+            var reflectStart = System.nanoTime();
+            try {
+                return buildServerPipeline(reflectStart);
+            } finally {
+                if (reflectionNanos == 0) {
+                    /* reflection failed part way, still record how long it took to fail */
+                    reflectionNanos = System.nanoTime() - reflectStart;
+                }
+            }
+        }
+
+        private boolean buildServerPipeline(long reflectStart) {
             ReflectionHelper reflect = new ReflectionHelper();
             log.info("Reflect: " + reflect);
 
@@ -256,9 +578,11 @@ public class PlayitTcpTunnel {
                 log.warning("failed to set remote address to " + trueIp);
             }
 
+            reflectionNanos = System.nanoTime() - reflectStart;
+
             var channel = tunnelChannel.pipeline().removeLast();
             tunnelChannel.pipeline()
-                    .addLast("timeout", new ReadTimeoutHandler(connectionTimeoutSeconds))
+                    .addLast("timeout", new ReadTimeoutHandler(settings.connectionTimeoutSeconds))
                     .addLast("legacy_query", (ChannelHandler) legacyPingHandler)
                     .addLast("splitter", (ChannelHandler) packetSplitter)
                     .addLast("decoder", (ChannelHandler) packetDecoder)
@@ -294,9 +618,18 @@ public class PlayitTcpTunnel {
 
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+            /* unix socket backends are read on the epoll group, the timeout belongs to the tunnel's loop */
+            var tunnelLoop = tunnelChannel.eventLoop();
+            if (tunnelLoop.inEventLoop()) {
+                backendActivity();
+            } else {
+                tunnelLoop.execute(this::backendActivity);
+            }
+
             tunnelChannel.writeAndFlush(msg).addListener(f -> {
                 if (!f.isSuccess()) {
                     log.warning("failed to send data to tunnel");
+                    journalRecord.closeReason = PlayitConnectionJournal.CloseReason.RELAY_ERROR;
                     minecraftChannel.disconnect();
                     tunnelChannel.disconnect();
                     return;
@@ -305,5 +638,15 @@ public class PlayitTcpTunnel {
                 ctx.read();
             });
         }
+
+        private void backendActivity() {
+            if (!relaying) {
+                /* first byte from the backend ends the handshake phase */
+                relaying = true;
+                startTimeout("relay idle", settings.relayIdleTimeoutSeconds, true, PlayitConnectionJournal.CloseReason.IDLE_TIMEOUT);
+            } else if (timeout != null) {
+                timeout.touch();
+            }
+        }
     }
 }
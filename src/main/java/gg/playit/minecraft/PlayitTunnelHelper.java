@@ -23,6 +23,7 @@ public class PlayitTunnelHelper {
     private final String agentId;
     private final int javaLocalPort;
     private final int bedrockLocalPort;
+    private final PlayitTunnelInventory inventory;
 
     /**
      * Create a new tunnel helper.
@@ -33,10 +34,20 @@ public class PlayitTunnelHelper {
      * @param bedrockLocalPort Local port for Bedrock tunnel (typically 19132)
      */
     public PlayitTunnelHelper(String secretKey, String agentId, int javaLocalPort, int bedrockLocalPort) {
+        this(secretKey, agentId, javaLocalPort, bedrockLocalPort, null);
+    }
+
+    /**
+     * Create a tunnel helper that answers tunnel checks from the agent's tunnel inventory.
+     *
+     * @param inventory Inventory to read from and refresh after creating tunnels, may be null
+     */
+    public PlayitTunnelHelper(String secretKey, String agentId, int javaLocalPort, int bedrockLocalPort, PlayitTunnelInventory inventory) {
         this.api = new ApiClient(secretKey);
         this.agentId = agentId;
         this.javaLocalPort = javaLocalPort;
         this.bedrockLocalPort = bedrockLocalPort;
+        this.inventory = inventory;
     }
 
     /**
@@ -58,8 +69,43 @@ public class PlayitTunnelHelper {
      * @return TunnelStatus with information about existing tunnels
      */
     public TunnelStatus checkExistingTunnels() {
+        return checkExistingTunnels(false);
+    }
+
+    /**
+     * @param fresh skip the inventory's cached view and fetch the tunnel list now
+     */
+    private TunnelStatus checkExistingTunnels(boolean fresh) {
         TunnelStatus status = new TunnelStatus();
 
+        if (inventory != null) {
+            try {
+                var view = inventory.view();
+                if (fresh || view == null) {
+                    view = inventory.refresh();
+                }
+
+                var java = view.java(javaLocalPort);
+                if (java != null) {
+                    status.hasJavaTunnel = true;
+                    status.javaTunnelAddress = java.displayAddress;
+                }
+
+                var bedrock = view.bedrock(bedrockLocalPort);
+                if (bedrock != null) {
+                    status.hasBedrockTunnel = true;
+                    status.bedrockTunnelAddress = bedrock.displayAddress;
+                }
+
+                log.info("[PlayitTunnelHelper] Tunnel check from inventory - Java: " + status.hasJavaTunnel + ", Bedrock: " + status.hasBedrockTunnel);
+            } catch (IOException e) {
+                status.errorMessage = "error while listing tunnels: " + e.getMessage();
+                log.warning("[PlayitTunnelHelper] " + status.errorMessage);
+            }
+
+            return status;
+        }
+
         try {
             AccountTunnels tunnels = api.listTunnels();
 
@@ -260,7 +306,7 @@ public class PlayitTunnelHelper {
 
         // Re-check to get the tunnel addresses after creation
         if (status.javaCreated || status.bedrockCreated) {
-            TunnelStatus updatedStatus = checkExistingTunnels();
+            TunnelStatus updatedStatus = checkExistingTunnels(true);
             status.hasJavaTunnel = updatedStatus.hasJavaTunnel;
             status.hasBedrockTunnel = updatedStatus.hasBedrockTunnel;
             status.javaTunnelAddress = updatedStatus.javaTunnelAddress;
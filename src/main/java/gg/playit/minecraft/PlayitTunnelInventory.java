@@ -0,0 +1,254 @@
+package gg.playit.minecraft;
+
+import gg.playit.api.ApiClient;
+import gg.playit.api.models.AccountTunnel;
+import gg.playit.api.models.AccountTunnels;
+import gg.playit.api.models.PortType;
+import gg.playit.api.models.TunnelType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * In-memory view of the account's tunnels, kept up to date by calling {@link #refresh()}
+ * on a schedule. Each refresh builds a new immutable {@link View} and swaps it in, so
+ * readers never block and never see a half applied update. Differences against the
+ * previous view are published to listeners.
+ */
+public class PlayitTunnelInventory {
+    static Logger log = Logger.getLogger(PlayitTunnelInventory.class.getName());
+
+    public enum ChangeType {
+        ADDED,
+        REMOVED,
+        ADDRESS_CHANGED,
+        ENABLED,
+        DISABLED
+    }
+
+    public static class Change {
+        public final ChangeType type;
+        /* null when added */
+        public final AccountTunnel previous;
+        /* null when removed */
+        public final AccountTunnel current;
+
+        Change(ChangeType type, AccountTunnel previous, AccountTunnel current) {
+            this.type = type;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public AccountTunnel tunnel() {
+            return current != null ? current : previous;
+        }
+
+        @Override
+        public String toString() {
+            var tunnel = tunnel();
+            return switch (type) {
+                case ADDRESS_CHANGED -> tunnel.tunnelType + " tunnel address changed: " + previous.displayAddress + " -> " + current.displayAddress;
+                default -> tunnel.tunnelType + " tunnel " + type.name().toLowerCase() + ": " + tunnel.displayAddress;
+            };
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the refreshing thread with all changes from one refresh.
+         */
+        void tunnelsChanged(List<Change> changes);
+    }
+
+    /**
+     * Immutable snapshot of the tunnel list with lookups by id, type, port type and local port.
+     */
+    public static class View {
+        public final long fetchedAt;
+        private final Map<String, AccountTunnel> byId;
+        private final Map<TunnelType, List<AccountTunnel>> byType;
+        private final Map<PortType, List<AccountTunnel>> byPortType;
+        private final Map<Integer, List<AccountTunnel>> byLocalPort;
+
+        View(List<AccountTunnel> tunnels, long fetchedAt) {
+            this.fetchedAt = fetchedAt;
+
+            var byId = new LinkedHashMap<String, AccountTunnel>();
+            var byType = new EnumMap<TunnelType, List<AccountTunnel>>(TunnelType.class);
+            var byPortType = new EnumMap<PortType, List<AccountTunnel>>(PortType.class);
+            var byLocalPort = new HashMap<Integer, List<AccountTunnel>>();
+
+            for (var tunnel : tunnels) {
+                byId.put(tunnel.id, tunnel);
+                if (tunnel.tunnelType != null) {
+                    byType.computeIfAbsent(tunnel.tunnelType, k -> new ArrayList<>()).add(tunnel);
+                }
+                if (tunnel.portType != null) {
+                    byPortType.computeIfAbsent(tunnel.portType, k -> new ArrayList<>()).add(tunnel);
+                }
+                if (tunnel.localPort != 0) {
+                    byLocalPort.computeIfAbsent(tunnel.localPort, k -> new ArrayList<>()).add(tunnel);
+                }
+            }
+
+            this.byId = byId;
+            this.byType = byType;
+            this.byPortType = byPortType;
+            this.byLocalPort = byLocalPort;
+        }
+
+        public Collection<AccountTunnel> all() {
+            return Collections.unmodifiableCollection(byId.values());
+        }
+
+        public AccountTunnel byId(String id) {
+            return byId.get(id);
+        }
+
+        public List<AccountTunnel> byType(TunnelType type) {
+            return Collections.unmodifiableList(byType.getOrDefault(type, List.of()));
+        }
+
+        public List<AccountTunnel> byPortType(PortType portType) {
+            return Collections.unmodifiableList(byPortType.getOrDefault(portType, List.of()));
+        }
+
+        public List<AccountTunnel> byLocalPort(int localPort) {
+            return Collections.unmodifiableList(byLocalPort.getOrDefault(localPort, List.of()));
+        }
+
+        /**
+         * @return the minecraft java tunnel, preferring one pointed at localPort
+         */
+        public AccountTunnel java(int localPort) {
+            return pick(byType(TunnelType.MinecraftJava), PortType.TCP, localPort);
+        }
+
+        /**
+         * @return the bedrock tunnel (MinecraftBedrock or Custom UDP), preferring one pointed at localPort
+         */
+        public AccountTunnel bedrock(int localPort) {
+            var found = pick(byType(TunnelType.MinecraftBedrock), PortType.UDP, localPort);
+            if (found == null) {
+                found = pick(byType(TunnelType.Custom), PortType.UDP, localPort);
+            }
+            return found;
+        }
+
+        private static AccountTunnel pick(List<AccountTunnel> tunnels, PortType portType, int localPort) {
+            AccountTunnel found = null;
+            for (var tunnel : tunnels) {
+                if (tunnel.portType != portType) {
+                    continue;
+                }
+                if (tunnel.localPort == localPort) {
+                    return tunnel;
+                }
+                if (found == null) {
+                    found = tunnel;
+                }
+            }
+            return found;
+        }
+    }
+
+    private final ApiClient api;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile View view;
+
+    public PlayitTunnelInventory(ApiClient api) {
+        this.api = api;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the latest view, or null if the first refresh has not completed
+     */
+    public View view() {
+        return view;
+    }
+
+    /**
+     * Fetch the tunnel list, swap in the new view and publish changes. Blocking, call
+     * from a background thread. Concurrent refreshes are serialized so diffs stay ordered.
+     */
+    public synchronized View refresh() throws IOException {
+        AccountTunnels tunnels = api.listTunnels();
+        var next = new View(tunnels.tunnels == null ? List.of() : tunnels.tunnels, System.currentTimeMillis());
+        var previous = view;
+        view = next;
+
+        if (previous == null) {
+            log.info("tunnel inventory loaded, " + next.byId.size() + " tunnels");
+            return next;
+        }
+
+        var changes = diff(previous, next);
+        if (!changes.isEmpty()) {
+            for (var change : changes) {
+                log.info(change.toString());
+            }
+
+            for (var listener : listeners) {
+                try {
+                    listener.tunnelsChanged(changes);
+                } catch (Exception e) {
+                    log.warning("tunnel inventory listener failed: " + e);
+                }
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Refresh, logging instead of throwing. For use as a scheduled task.
+     */
+    public void refreshQuietly() {
+        try {
+            refresh();
+        } catch (IOException e) {
+            log.warning("failed to refresh tunnel inventory: " + e);
+        }
+    }
+
+    static List<Change> diff(View previous, View next) {
+        var changes = new ArrayList<Change>();
+
+        for (var tunnel : next.byId.values()) {
+            var old = previous.byId.get(tunnel.id);
+            if (old == null) {
+                changes.add(new Change(ChangeType.ADDED, null, tunnel));
+                continue;
+            }
+
+            if (!Objects.equals(old.displayAddress, tunnel.displayAddress)) {
+                changes.add(new Change(ChangeType.ADDRESS_CHANGED, old, tunnel));
+            }
+            if (old.enabled != tunnel.enabled) {
+                changes.add(new Change(tunnel.enabled ? ChangeType.ENABLED : ChangeType.DISABLED, old, tunnel));
+            }
+        }
+
+        for (var old : previous.byId.values()) {
+            if (!next.byId.containsKey(old.id)) {
+                changes.add(new Change(ChangeType.REMOVED, old, null));
+            }
+        }
+
+        return changes;
+    }
+}
@@ -0,0 +1,59 @@
+package gg.playit.minecraft;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks smoothed RTT and peak bandwidth per tunnel server and sizes socket
+ * buffers to the bandwidth-delay product. RTT comes from the claim TCP connect
+ * (SYN to SYN-ACK), bandwidth from the busiest second of finished connections.
+ */
+public class SocketAutoTuner {
+    static final int MIN_BUFFER = 64 * 1024;
+    static final int MAX_BUFFER = 4 * 1024 * 1024;
+
+    /* ignore connections that never moved real data (status pings, failed logins) */
+    private static final long MIN_SAMPLE_BYTES_PER_SECOND = 64 * 1024;
+
+    private final ConcurrentHashMap<Long, Estimate> estimates = new ConcurrentHashMap<>();
+
+    public void recordConnectTime(long tunnelServerId, long connectNanos) {
+        estimates.computeIfAbsent(tunnelServerId, id -> new Estimate()).addRtt(connectNanos);
+    }
+
+    public void recordPeakThroughput(long tunnelServerId, long bytesPerSecond) {
+        if (bytesPerSecond < MIN_SAMPLE_BYTES_PER_SECOND) {
+            return;
+        }
+        estimates.computeIfAbsent(tunnelServerId, id -> new Estimate()).addBandwidth(bytesPerSecond);
+    }
+
+    /**
+     * @return socket buffer size for connections to the tunnel server, 0 if nothing has been measured yet
+     */
+    public int bufferSize(long tunnelServerId) {
+        var estimate = estimates.get(tunnelServerId);
+        if (estimate == null || estimate.srttNanos == 0 || estimate.bandwidth == 0) {
+            return 0;
+        }
+
+        /* 2x BDP so the window can grow past the estimate */
+        double bdp = estimate.bandwidth * (estimate.srttNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        long size = Math.max(MIN_BUFFER, Math.min(MAX_BUFFER, (long) (2 * bdp)));
+        return (int) size;
+    }
+
+    private static class Estimate {
+        private volatile long srttNanos;
+        private volatile double bandwidth;
+
+        synchronized void addRtt(long sample) {
+            /* RFC 6298 style smoothing */
+            srttNanos = srttNanos == 0 ? sample : srttNanos + (sample - srttNanos) / 8;
+        }
+
+        synchronized void addBandwidth(long sample) {
+            bandwidth = bandwidth == 0 ? sample : bandwidth + (sample - bandwidth) / 4;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package gg.playit.minecraft;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * Named sets of socket options applied to tunnel claim and backend connections.
+ */
+public enum SocketProfile {
+    /* small buffers, OS managed socket buffers, reads sized for game packets */
+    LATENCY("latency", 0, new AdaptiveRecvByteBufAllocator(64, 2048, 65536), new WriteBufferWaterMark(16 * 1024, 64 * 1024)),
+    /* large socket buffers and reads for resource packs / world downloads */
+    THROUGHPUT("throughput", 512 * 1024, new AdaptiveRecvByteBufAllocator(512, 16384, 262144), new WriteBufferWaterMark(128 * 1024, 512 * 1024)),
+    /* keep per connection memory small for hosts with many players and little RAM */
+    LOW_MEMORY("low-memory", 32 * 1024, new AdaptiveRecvByteBufAllocator(64, 1024, 8192), new WriteBufferWaterMark(8 * 1024, 32 * 1024)),
+    /* like latency, but socket buffers sized from measured RTT and bandwidth of the tunnel server */
+    AUTO("auto", 0, new AdaptiveRecvByteBufAllocator(64, 2048, 65536), new WriteBufferWaterMark(16 * 1024, 64 * 1024));
+
+    public final String configName;
+    private final int socketBufferSize;
+    private final AdaptiveRecvByteBufAllocator recvAllocator;
+    private final WriteBufferWaterMark waterMark;
+
+    SocketProfile(String configName, int socketBufferSize, AdaptiveRecvByteBufAllocator recvAllocator, WriteBufferWaterMark waterMark) {
+        this.configName = configName;
+        this.socketBufferSize = socketBufferSize;
+        this.recvAllocator = recvAllocator;
+        this.waterMark = waterMark;
+    }
+
+    public static SocketProfile fromConfig(String value) {
+        for (var profile : values()) {
+            if (profile.configName.equalsIgnoreCase(value)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tunedBufferSize socket buffer size from {@link SocketAutoTuner}, only used by {@link #AUTO}, 0 for OS default
+     */
+    public void apply(Bootstrap bootstrap, int tunedBufferSize) {
+        bootstrap.option(ChannelOption.TCP_NODELAY, true);
+        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+        bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, recvAllocator);
+        bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+
+        int bufferSize = this == AUTO ? tunedBufferSize : socketBufferSize;
+        if (bufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, bufferSize);
+            bootstrap.option(ChannelOption.SO_RCVBUF, bufferSize);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package gg.playit.minecraft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures server tick rate from a task run every tick. Keeps the intervals of the last
+ * few seconds of ticks in a ring, readable from any thread.
+ */
+class TickHealthSampler implements Runnable {
+    private static final int WINDOW = 100;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final long[] intervals = new long[WINDOW];
+    private int next;
+    private int count;
+    private long sum;
+    private long lastTick;
+
+    private volatile double tps = 20;
+    private volatile long lastTickAt = System.nanoTime();
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        if (lastTick != 0) {
+            long interval = now - lastTick;
+            sum += interval - intervals[next];
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            if (count < WINDOW) {
+                count++;
+            }
+
+            tps = Math.min(20, (double) TimeUnit.SECONDS.toNanos(1) * count / sum);
+        }
+        lastTick = now;
+        lastTickAt = now;
+    }
+
+    /**
+     * @return ticks per second over the last few seconds, lower while the current tick is running long
+     */
+    double tps() {
+        /* a tick that hasn't finished isn't in the ring yet, a hung server would still look healthy */
+        long running = System.nanoTime() - lastTickAt;
+        if (running > 2 * TICK_NANOS) {
+            return Math.min(tps, (double) TimeUnit.SECONDS.toNanos(1) / running);
+        }
+        return tps;
+    }
+}